@@ -0,0 +1,347 @@
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs many double pendulum scenarios from a scenario file in one JVM, concurrently on every core, without a
+ * display.
+ *
+ * The scenario file has one scenario per line as whitespace separated key=value pairs. Blank lines and lines
+ * starting with # are ignored, and a line whose first word is "defaults" sets values for the scenarios after it.
+ * <pre>
+ *   name                   the name used in progress reports (default: the line number)
+ *   m1, x1, y1, vx1, vy1   mass, position and velocity of the first bob (default 1, 0, -0.2, 0, 0)
+ *   m2, x2, y2, vx2, vy2   the same for the second bob, absolute (default 1, 0, -0.4, 4, 0)
+ *   theta1, theta2, omega1, omega2, l1, l2
+ *                          the initial conditions as angles instead, used if theta1 is given (lengths default 1)
+ *   h                      the timestep (default 1e-5)
+ *   duration               the simulated time (default 10)
+ *   sample                 the number of steps between samples written (default 1000)
+ *   integrator             rk4 or yoshida (default rk4)
+ *   trig                   strict or fast (default strict)
+ *   format                 traj, csv or none (default none)
+ *   output                 the file to write, required unless the format is none
+ *   energies               true to store the energies in a traj file (default false)
+ * </pre>
+ * A traj file is written by TrajectoryWriter; a csv file has the layout of DoublePendulum.out, the time and the
+ * kinetic, potential and total energy. Every scenario reports when it finishes, with its energy drift, and the
+ * progress of the running scenarios is printed every few seconds. Only the simulation classes are used, so no
+ * AWT or swing classes are loaded.
+ *
+ * usage: java BatchRunner scenarios.txt [threads]
+ */
+public class BatchRunner {
+
+    //seconds between progress reports
+    private static final long REPORT_INTERVAL = 5;
+
+    //steps between progress updates when nothing is written
+    private static final int CHUNK = 100000;
+
+    private static final Set<String> KEYS = new HashSet<String>(Arrays.asList(
+            "name", "m1", "x1", "y1", "vx1", "vy1", "m2", "x2", "y2", "vx2", "vy2",
+            "theta1", "theta2", "omega1", "omega2", "l1", "l2",
+            "h", "duration", "sample", "integrator", "trig", "format", "output", "energies"));
+
+    /**
+     * One line of the scenario file, and its progress once running.
+     */
+    static final class Scenario {
+
+        final int line;
+        final Map<String, String> values;
+        final String name;
+        final double h, duration;
+        final long steps;
+        final int sample;
+
+        volatile long done = 0;
+        volatile boolean started = false, finished = false;
+
+        Scenario(int line, Map<String, String> values) {
+
+            this.line = line;
+            this.values = values;
+
+            name = values.containsKey("name") ? values.get("name") : "line " + line;
+            h = number("h", 1e-5);
+            duration = number("duration", 10.0);
+            sample = (int) number("sample", 1000);
+            if (!(h > 0.0) || !(duration >= 0.0) || sample < 1) {
+                throw new IllegalArgumentException("Need h > 0, duration >= 0 and sample >= 1");
+            }
+            steps = Math.round(duration / h);
+
+            String format = text("format", "none");
+            if (!format.equals("none") && !format.equals("traj") && !format.equals("csv")) {
+                throw new IllegalArgumentException("Unknown format " + format);
+            }
+            if (!format.equals("none") && !values.containsKey("output")) {
+                throw new IllegalArgumentException("Format " + format + " needs an output");
+            }
+            String integrator = text("integrator", "rk4");
+            if (!integrator.equals("rk4") && !integrator.equals("yoshida")) {
+                throw new IllegalArgumentException("Unknown integrator " + integrator);
+            }
+            String trig = text("trig", "strict");
+            if (!trig.equals("strict") && !trig.equals("fast")) throw new IllegalArgumentException("Unknown trig " + trig);
+
+            //build the pendulum once to check the initial conditions
+            pendulum();
+        }
+
+        double number(String key, double otherwise) {
+
+            String value = values.get(key);
+            if (value == null) return otherwise;
+            try {
+                return Double.parseDouble(value);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid " + key + ": " + value);
+            }
+        }
+
+        String text(String key, String otherwise) {
+            String value = values.get(key);
+            return value == null ? otherwise : value.toLowerCase();
+        }
+
+        DoublePendulum pendulum() {
+
+            DoublePendulum dp;
+            if (values.containsKey("theta1")) {
+                try {
+                    dp = DoublePendulum.fromAngles(number("m1", 1.0), number("m2", 1.0), number("l1", 1.0),
+                            number("l2", 1.0), number("theta1", 0.0), number("theta2", 0.0), number("omega1", 0.0),
+                            number("omega2", 0.0));
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Scenario " + name + ": " + e.getMessage(), e);
+                }
+            } else {
+                double m1 = number("m1", 1.0), x1 = number("x1", 0.0), y1 = number("y1", -0.2);
+                double m2 = number("m2", 1.0), x2 = number("x2", 0.0), y2 = number("y2", -0.4);
+
+                //as fromAngles checks, else the pendulum runs on with NaN or infinite coordinates
+                double l1 = Math.hypot(x1, y1), l2 = Math.hypot(x2 - x1, y2 - y1);
+                if (!(m1 > 0.0 && m1 < Double.POSITIVE_INFINITY) || !(m2 > 0.0 && m2 < Double.POSITIVE_INFINITY)
+                        || !(l1 > 0.0 && l1 < Double.POSITIVE_INFINITY) || !(l2 > 0.0 && l2 < Double.POSITIVE_INFINITY)) {
+                    throw new IllegalArgumentException("Scenario " + name
+                            + ": Masses and lengths must be positive, no bob may be on its pivot");
+                }
+
+                dp = new DoublePendulum(
+                        new Particle3D(m1, new Vector3D(x1, y1, 0.0),
+                                new Vector3D(number("vx1", 0.0), number("vy1", 0.0), 0.0), null),
+                        new Particle3D(m2, new Vector3D(x2, y2, 0.0),
+                                new Vector3D(number("vx2", 4.0), number("vy2", 0.0), 0.0), null));
+            }
+
+            if (text("integrator", "rk4").equals("yoshida")) dp.setIntegrator(new YoshidaIntegrator());
+            if (text("trig", "strict").equals("fast")) dp.setTrigMode(DoublePendulum.TrigMode.FAST);
+            return dp;
+        }
+
+        /**
+         * Integrate the scenario, writing its samples to its sink.
+         *
+         * @return the relative energy drift over the run, or the absolute drift if the energy started at zero
+         */
+        double run() throws IOException {
+
+            DoublePendulum dp = pendulum();
+            double energy0 = dp.getTotalEnergy();
+            String format = text("format", "none");
+
+            if (format.equals("none")) {
+                while (done < steps) {
+                    int n = (int) Math.min(CHUNK, steps - done);
+                    dp.iterate(n, h);
+                    done += n;
+                }
+            } else {
+                Path output = Paths.get(values.get("output"));
+                try (Sink sink = format.equals("traj")
+                        ? new TrajSink(output, dp, h, sample, Boolean.parseBoolean(text("energies", "false")))
+                        : new CsvSink(output)) {
+                    sink.write(dp);
+                    while (done < steps) {
+                        int n = (int) Math.min(sample, steps - done);
+                        dp.iterate(n, h);
+                        done += n;
+                        sink.write(dp);
+                    }
+                }
+            }
+
+            return EnergyMonitor.relative(dp.getTotalEnergy(), energy0);
+        }
+    }
+
+    /**
+     * Where the samples of a scenario go.
+     */
+    private interface Sink extends Closeable {
+        void write(DoublePendulum dp) throws IOException;
+    }
+
+    private static final class TrajSink implements Sink {
+
+        private final TrajectoryWriter writer;
+
+        TrajSink(Path path, DoublePendulum dp, double h, long sample, boolean energies) throws IOException {
+            writer = new TrajectoryWriter(path, dp, h, sample, energies);
+        }
+
+        @Override
+        public void write(DoublePendulum dp) throws IOException {
+            writer.write(dp);
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.close();
+        }
+    }
+
+    private static final class CsvSink implements Sink {
+
+        private final BufferedWriter writer;
+        private final double[] obs = new double[DoublePendulum.OBSERVABLES];
+
+        CsvSink(Path path) throws IOException {
+            writer = Files.newBufferedWriter(path, StandardCharsets.US_ASCII);
+        }
+
+        @Override
+        public void write(DoublePendulum dp) throws IOException {
+
+            dp.readObservables(obs);
+            writer.write(dp.getTime() + ", " + obs[DoublePendulum.KINETIC] + ", " + obs[DoublePendulum.POTENTIAL]
+                    + ", " + obs[DoublePendulum.TOTAL]);
+            writer.newLine();
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.close();
+        }
+    }
+
+    /**
+     * Read the scenarios of a file, checking every one before any is run.
+     *
+     * @throws IllegalArgumentException naming the line of the first invalid scenario
+     */
+    static List<Scenario> parse(List<String> lines) {
+
+        List<Scenario> scenarios = new ArrayList<Scenario>();
+        Map<String, String> defaults = new HashMap<String, String>();
+
+        for (int i = 0; i < lines.size(); i++) {
+
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+
+            //defaults only as a word of its own, so a key such as defaultsX is still reported as unknown
+            String[] words = line.split("\\s+", 2);
+            boolean isDefaults = words[0].equals("defaults");
+            if (isDefaults) line = words.length > 1 ? words[1] : "";
+
+            Map<String, String> values = new HashMap<String, String>(defaults);
+            try {
+                for (String pair : line.split("\\s+")) {
+                    if (pair.isEmpty()) continue;
+                    int eq = pair.indexOf('=');
+                    if (eq <= 0) throw new IllegalArgumentException("Expected key=value: " + pair);
+                    String key = pair.substring(0, eq);
+                    if (!KEYS.contains(key)) throw new IllegalArgumentException("Unknown key " + key);
+                    values.put(key, pair.substring(eq + 1));
+                }
+                if (isDefaults) defaults = values;
+                else scenarios.add(new Scenario(i + 1, values));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("line " + (i + 1) + ": " + e.getMessage(), e);
+            }
+        }
+        return scenarios;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+
+        if (args.length < 1) {
+            System.err.println("usage: java BatchRunner scenarios.txt [threads]");
+            System.exit(1);
+        }
+
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        final List<Scenario> scenarios;
+        try {
+            scenarios = parse(Files.readAllLines(Paths.get(args[0]), StandardCharsets.UTF_8));
+        } catch (IllegalArgumentException e) {
+            System.err.println(args[0] + ", " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+
+        System.out.println(scenarios.size() + " scenarios on " + threads + " threads");
+
+        final AtomicInteger finished = new AtomicInteger(), failed = new AtomicInteger();
+        final long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+
+        for (final Scenario scenario : scenarios) {
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    scenario.started = true;
+                    long begin = System.nanoTime();
+                    try {
+                        double drift = scenario.run();
+                        System.out.printf("[%d/%d] %s done in %.1fs, energy drift %.3g%n", finished.incrementAndGet(),
+                                scenarios.size(), scenario.name, (System.nanoTime() - begin) / 1e9, drift);
+                    } catch (IOException | RuntimeException e) {
+                        failed.incrementAndGet();
+                        System.out.printf("[%d/%d] %s FAILED: %s%n", finished.incrementAndGet(), scenarios.size(),
+                                scenario.name, e);
+                    } finally {
+                        scenario.finished = true;
+                    }
+                }
+            });
+        }
+        pool.shutdown();
+
+        //report on the running scenarios until they are all done
+        while (!pool.awaitTermination(REPORT_INTERVAL, TimeUnit.SECONDS)) {
+            StringBuilder report = new StringBuilder(String.format("%.0fs:", (System.nanoTime() - start) / 1e9));
+            for (Scenario scenario : scenarios) {
+                if (scenario.started && !scenario.finished) {
+                    report.append(String.format(" %s %.0f%%", scenario.name,
+                            scenario.steps == 0 ? 100.0 : 100.0 * scenario.done / scenario.steps));
+                }
+            }
+            System.out.println(report);
+        }
+
+        System.out.printf("%d scenarios in %.1fs, %d failed%n", scenarios.size(), (System.nanoTime() - start) / 1e9,
+                failed.get());
+        if (failed.get() > 0) System.exit(1);
+    }
+
+}
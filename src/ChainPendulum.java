@@ -0,0 +1,341 @@
+/**
+ * A planar chain of N pendulums, each bob hanging from the one before by a massless rod, the first from the
+ * origin.
+ *
+ * The state is laid out as for DoublePendulum: the N angles of the rods from the downward vertical, followed by
+ * their N angular frequencies. Rather than solving the N x N mass matrix for the angular accelerations, which
+ * costs O(N^3) per evaluation, the equations of motion are written in terms of the tensions T_i in the rods.
+ * The constraint that every rod keeps its length gives, for each rod, a linear equation in the tensions of it
+ * and its two neighbours,
+ * <pre>
+ *   -T_1/m_1 + T_2 cos(theta_2 - theta_1)/m_1 + g cos(theta_1) = -L_1 omega_1^2
+ *   -T_i (1/m_i + 1/m_(i-1)) + T_(i+1) cos(theta_(i+1) - theta_i)/m_i + T_(i-1) cos(theta_(i-1) - theta_i)/m_(i-1)
+ *       = -L_i omega_i^2
+ * </pre>
+ * with T_(N+1) = 0, a symmetric tridiagonal system solved in O(N) by the Thomas algorithm. The angular
+ * accelerations then follow from the components of the tensions normal to each rod,
+ * <pre>
+ *   L_1 theta_1'' = T_2 sin(theta_2 - theta_1)/m_1 - g sin(theta_1)
+ *   L_i theta_i'' = T_(i+1) sin(theta_(i+1) - theta_i)/m_i + T_(i-1) sin(theta_(i-1) - theta_i)/m_(i-1)
+ * </pre>
+ * so an evaluation of the RHS takes O(N) time and 2N sines and cosines. Every chain, two links included, goes
+ * through this solve; for two links it agrees with the equations of DoublePendulum to rounding, which main checks.
+ *
+ * Integrated with the classic 4th order Runge-Kutta method, as DoublePendulum is by default.
+ */
+public class ChainPendulum {
+
+    private static final double GRAVITY = DoublePendulum.GRAVITY;
+
+    private final int n;
+    private final double[] mass, length;
+
+    private double time = 0.0;
+    private final double[] state;
+
+    //working arrays of the RHS: sines and cosines of the angles, the tridiagonal system and the tensions
+    private final double[] sin, cos, diag, off, rhs, tension;
+
+    //working arrays of the Runge-Kutta step
+    private final double[] midpt, prev, dydt;
+
+    /**
+     * Set up a chain from its bobs, each positioned and moving in the xy plane, the first relative to the
+     * origin and the rest to the bob before. The lengths of the rods are the distances between the bobs.
+     *
+     * @param bobs at least two bobs, from the origin outwards
+     */
+    public ChainPendulum(Particle3D... bobs) {
+        this(masses(bobs), lengths(bobs), polarState(bobs));
+        checkLengths();
+    }
+
+    /**
+     * Set up a chain directly from the masses, rod lengths, angles and angular frequencies, outwards from the
+     * origin.
+     */
+    public static ChainPendulum fromAngles(double[] masses, double[] lengths, double[] theta, double[] omega) {
+
+        int n = masses.length;
+        if (lengths.length != n || theta.length != n || omega.length != n) {
+            throw new IllegalArgumentException("Masses, lengths, angles and frequencies must have the same length");
+        }
+
+        double[] state = new double[2 * n];
+        System.arraycopy(theta, 0, state, 0, n);
+        System.arraycopy(omega, 0, state, n, n);
+
+        ChainPendulum chain = new ChainPendulum(masses.clone(), lengths.clone(), state);
+        chain.checkLengths();
+        return chain;
+    }
+
+    private ChainPendulum(double[] mass, double[] length, double[] state) {
+
+        n = mass.length;
+        if (n < 2) throw new IllegalArgumentException("A chain needs at least two links: " + n);
+        for (double m : mass) if (!(m > 0.0)) throw new IllegalArgumentException("Masses must be positive");
+
+        this.mass = mass;
+        this.length = length;
+        this.state = state;
+
+        sin = new double[n];
+        cos = new double[n];
+        diag = new double[n];
+        off = new double[n];
+        rhs = new double[n];
+        tension = new double[n + 1];
+
+        midpt = new double[2 * n];
+        prev = new double[2 * n];
+        dydt = new double[2 * n];
+    }
+
+    private static double[] masses(Particle3D[] bobs) {
+
+        double[] masses = new double[bobs.length];
+        for (int i = 0; i < bobs.length; i++) masses[i] = bobs[i].getMass();
+        return masses;
+    }
+
+    /**
+     * The position of bob i relative to the bob before, or to the origin.
+     */
+    private static Vector3D rod(Particle3D[] bobs, int i) {
+        return i == 0 ? bobs[0].getPosition() : Particle3D.relativePosition(bobs[i - 1], bobs[i]);
+    }
+
+    private static double[] lengths(Particle3D[] bobs) {
+
+        double[] lengths = new double[bobs.length];
+        for (int i = 0; i < bobs.length; i++) {
+            Vector3D r = rod(bobs, i);
+            lengths[i] = Math.sqrt(r.getX() * r.getX() + r.getY() * r.getY());
+        }
+        return lengths;
+    }
+
+    /**
+     * The angles of the rods and their angular frequencies, (r cross v dot k) over l squared, where v is the
+     * velocity of the bob relative to the one before.
+     */
+    private static double[] polarState(Particle3D[] bobs) {
+
+        int n = bobs.length;
+        double[] state = new double[2 * n];
+        for (int i = 0; i < n; i++) {
+            Vector3D r = rod(bobs, i);
+            Vector3D v = i == 0 ? bobs[0].getVelocity() : Particle3D.relativeVelocity(bobs[i - 1], bobs[i]);
+            state[i] = Math.atan2(r.getX(), -r.getY());
+            state[n + i] = (r.getX() * v.getY() - r.getY() * v.getX()) / (r.getX() * r.getX() + r.getY() * r.getY());
+        }
+        return state;
+    }
+
+    private void checkLengths() {
+        for (double l : length) if (!(l > 0.0)) throw new IllegalArgumentException("Lengths must be positive");
+    }
+
+    /**
+     * Perform n steps of the 4th order Runge-Kutta method, each h in length.
+     */
+    public void iterate(int steps, double h) {
+
+        final double HALF = 0.5 * h, THIRD = h / 3.0, SIXTH = h / 6.0;
+        final int dim = 2 * n;
+
+        for (int step = 0; step < steps; step++) {
+
+            for (int i = 0; i < dim; i++) midpt[i] = prev[i] = state[i];
+
+            evaluateDyDt(time, midpt, dydt);
+            for (int i = 0; i < dim; i++) {
+                state[i] += SIXTH * dydt[i];
+                midpt[i] = prev[i] + HALF * dydt[i];
+            }
+
+            evaluateDyDt(time + HALF, midpt, dydt);
+            for (int i = 0; i < dim; i++) {
+                state[i] += THIRD * dydt[i];
+                midpt[i] = prev[i] + HALF * dydt[i];
+            }
+
+            evaluateDyDt(time + HALF, midpt, dydt);
+            for (int i = 0; i < dim; i++) {
+                state[i] += THIRD * dydt[i];
+                midpt[i] = prev[i] + h * dydt[i];
+            }
+
+            evaluateDyDt(time + h, midpt, dydt);
+            for (int i = 0; i < dim; i++) state[i] += SIXTH * dydt[i];
+
+            time += h;
+        }
+    }
+
+    /**
+     * Evaluate the RHS of the equations of motion at y into out.
+     *
+     * @param t the time
+     * @param y the angles followed by the angular frequencies
+     * @param out filled with dy/dt
+     */
+    void evaluateDyDt(double t, double[] y, double[] out) {
+
+        for (int i = 0; i < n; i++) {
+            sin[i] = Math.sin(y[i]);
+            cos[i] = Math.cos(y[i]);
+            out[i] = y[n + i];
+        }
+
+        //the tension system: diag on the diagonal, off[i] coupling rods i and i+1
+        for (int i = 0; i < n; i++) {
+            double inv = 1.0 / mass[i];
+            diag[i] = i == 0 ? -inv : -(inv + 1.0 / mass[i - 1]);
+            off[i] = i + 1 < n ? (cos[i + 1] * cos[i] + sin[i + 1] * sin[i]) * inv : 0.0;
+            rhs[i] = -length[i] * y[n + i] * y[n + i];
+        }
+        rhs[0] -= GRAVITY * cos[0];
+
+        //Thomas algorithm: eliminate below the diagonal, then substitute back
+        for (int i = 1; i < n; i++) {
+            double w = off[i - 1] / diag[i - 1];
+            diag[i] -= w * off[i - 1];
+            rhs[i] -= w * rhs[i - 1];
+        }
+        tension[n] = 0.0;
+        tension[n - 1] = rhs[n - 1] / diag[n - 1];
+        for (int i = n - 2; i >= 0; i--) tension[i] = (rhs[i] - off[i] * tension[i + 1]) / diag[i];
+
+        //the angular accelerations, sin(theta_j - theta_i) = sin_j cos_i - cos_j sin_i
+        for (int i = 0; i < n; i++) {
+            double a = 0.0;
+            if (i + 1 < n) a += tension[i + 1] * (sin[i + 1] * cos[i] - cos[i + 1] * sin[i]) / mass[i];
+            if (i == 0) a -= GRAVITY * sin[0];
+            else a += tension[i - 1] * (sin[i - 1] * cos[i] - cos[i - 1] * sin[i]) / mass[i - 1];
+            out[n + i] = a / length[i];
+        }
+    }
+
+    /**
+     * The bob i, counting from 0 at the origin, as a Particle3D in cartesian coords.
+     */
+    public Particle3D getBob(int i) {
+
+        if (i < 0 || i >= n) throw new IndexOutOfBoundsException("Bob " + i + " of " + n);
+
+        double x = 0.0, y = 0.0, vx = 0.0, vy = 0.0;
+        for (int j = 0; j <= i; j++) {
+            double s = Math.sin(state[j]), c = Math.cos(state[j]), w = length[j] * state[n + j];
+            x += length[j] * s;
+            y -= length[j] * c;
+            vx += w * c;
+            vy += w * s;
+        }
+        return new Particle3D(mass[i], new Vector3D(x, y, 0.0), new Vector3D(vx, vy, 0.0), null);
+    }
+
+    /**
+     * Fill x and y with the positions of the bobs, without allocating.
+     */
+    public void readPositions(double[] x, double[] y) {
+
+        double px = 0.0, py = 0.0;
+        for (int j = 0; j < n; j++) {
+            px += length[j] * Math.sin(state[j]);
+            py -= length[j] * Math.cos(state[j]);
+            x[j] = px;
+            y[j] = py;
+        }
+    }
+
+    /**
+     * Copy the state into out: the N angles followed by the N angular frequencies.
+     */
+    public void readState(double[] out) {
+        System.arraycopy(state, 0, out, 0, 2 * n);
+    }
+
+    /**
+     * @return the kinetic plus potential energy of the chain.
+     */
+    public double getTotalEnergy() {
+
+        double y = 0.0, vx = 0.0, vy = 0.0, energy = 0.0;
+        for (int j = 0; j < n; j++) {
+            double s = Math.sin(state[j]), c = Math.cos(state[j]), w = length[j] * state[n + j];
+            y -= length[j] * c;
+            vx += w * c;
+            vy += w * s;
+            energy += mass[j] * (0.5 * (vx * vx + vy * vy) + GRAVITY * y);
+        }
+        return energy;
+    }
+
+    /**
+     * @return the number of links.
+     */
+    public int size() {
+        return n;
+    }
+
+    public double getTime() {
+        return time;
+    }
+
+    public double getMass(int i) {
+        return mass[i];
+    }
+
+    public double getLength(int i) {
+        return length[i];
+    }
+
+    /**
+     * @return the length of the chain fully extended.
+     */
+    public double getMaxLength() {
+
+        double total = 0.0;
+        for (double l : length) total += l;
+        return total;
+    }
+
+    /**
+     * Check the tension solve against the equations of DoublePendulum: the largest difference in the angular
+     * accelerations of a two link chain over random masses, lengths and states, relative to their size.
+     *
+     * usage: java ChainPendulum [samples]
+     */
+    public static void main(String[] args) {
+
+        int samples = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        java.util.Random random = new java.util.Random(1);
+        double[] y = new double[4], chainOut = new double[4], dpOut = new double[4];
+        double worst = 0.0;
+
+        for (int s = 0; s < samples; s++) {
+
+            double[] masses = {0.1 + 10.0 * random.nextDouble(), 0.1 + 10.0 * random.nextDouble()};
+            double[] lengths = {0.1 + 2.0 * random.nextDouble(), 0.1 + 2.0 * random.nextDouble()};
+            for (int i = 0; i < 2; i++) y[i] = 2.0 * Math.PI * (random.nextDouble() - 0.5);
+            for (int i = 2; i < 4; i++) y[i] = 20.0 * (random.nextDouble() - 0.5);
+
+            ChainPendulum chain = fromAngles(masses, lengths, new double[]{y[0], y[1]}, new double[]{y[2], y[3]});
+            DoublePendulum dp = DoublePendulum.fromAngles(masses[0], masses[1], lengths[0], lengths[1],
+                    y[0], y[1], y[2], y[3]);
+            chain.evaluateDyDt(0.0, y, chainOut);
+            dp.evaluateDyDt(0.0, y, dpOut);
+
+            //the accelerations are sums of terms of order g/l and l omega^2/l, so measure against those
+            double scale = DoublePendulum.GRAVITY / Math.min(lengths[0], lengths[1])
+                    + Math.max(lengths[0], lengths[1]) / Math.min(lengths[0], lengths[1]) * (y[2] * y[2] + y[3] * y[3]);
+            for (int i = 0; i < 4; i++) worst = Math.max(worst, Math.abs(chainOut[i] - dpOut[i]) / scale);
+        }
+
+        System.out.printf("two link chain against DoublePendulum over %d states: largest relative difference %.3g%n",
+                samples, worst);
+    }
+
+}
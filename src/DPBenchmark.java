@@ -0,0 +1,337 @@
+import java.lang.management.ManagementFactory;
+
+/**
+ * Micro benchmarks for the hot paths of the simulation.
+ *
+ * Each benchmark is warmed up and then timed over several measurement rounds. For every benchmark the
+ * throughput (operations per second) and the bytes allocated per operation on the benchmarking thread
+ * are reported, the latter playing the role of the gc allocation rate profiler.
+ *
+ * usage: java DPBenchmark [name filter]
+ */
+public class DPBenchmark {
+
+    //number of warmup and measurement rounds, and the minimum length of each round in nanoseconds.
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURE_ROUNDS = 5;
+    private static final long ROUND_NANOS = 200000000L;
+
+    //results are folded into this field so the JIT cannot remove the work being measured
+    private static volatile double sink;
+
+    /**
+     * A single benchmark. run performs ops operations and returns a value depending on all of them.
+     */
+    private static abstract class Bench {
+
+        final String name;
+
+        Bench(String name) {
+            this.name = name;
+        }
+
+        abstract double run(int ops);
+    }
+
+    /**
+     * Iterate the pendulum with n steps of h per operation.
+     */
+    private static Bench iterate(final int n, final double h, final DoublePendulum.TrigMode mode) {
+        return new Bench("iterate n=" + n + " h=" + h + (mode == DoublePendulum.TrigMode.FAST ? " fast" : "")) {
+            final DoublePendulum dp = DoublePendulum.defaultPendulum();
+
+            {
+                dp.setTrigMode(mode);
+            }
+
+            @Override
+            double run(int ops) {
+                for (int i = 0; i < ops; i++) dp.iterate(n, h);
+                return dp.getTime();
+            }
+        };
+    }
+
+    /**
+     * One step of a chain of n equal links, released from a gentle curve so that the tensions stay moderate.
+     * The time per step should grow linearly with n.
+     */
+    private static Bench chain(final int n) {
+        return new Bench("chain step N=" + n) {
+            final ChainPendulum chain;
+
+            {
+                double[] masses = new double[n], lengths = new double[n], theta = new double[n], omega = new double[n];
+                for (int i = 0; i < n; i++) {
+                    masses[i] = 1.0 / n;
+                    lengths[i] = 1.0 / n;
+                    theta[i] = 0.5 + 0.5 * i / n;
+                }
+                chain = ChainPendulum.fromAngles(masses, lengths, theta, omega);
+            }
+
+            @Override
+            double run(int ops) {
+                chain.iterate(ops, 1e-6);
+                return chain.getTime();
+            }
+        };
+    }
+
+    private static Bench[] benchmarks() {
+
+        final double[] y = {0.3, -1.2, 2.0, -4.0};
+
+        final Vector3D a = new Vector3D(1.0, 2.0, 3.0);
+        final Vector3D b = new Vector3D(-0.5, 0.25, 4.0);
+
+        return new Bench[]{
+
+                iterate(1, 1e-5, DoublePendulum.TrigMode.STRICT),
+                iterate(100, 1e-5, DoublePendulum.TrigMode.STRICT),
+                iterate(10000, 1e-5, DoublePendulum.TrigMode.STRICT),
+                iterate(10000, 1.5e-7, DoublePendulum.TrigMode.STRICT),
+                iterate(10000, 1e-5, DoublePendulum.TrigMode.FAST),
+
+                new Bench("evaluateDyDt") {
+                    final DoublePendulum dp = DoublePendulum.defaultPendulum();
+
+                    @Override
+                    double run(int ops) {
+                        for (int i = 0; i < ops; i++) {
+                            y[0] += 1e-9;
+                            dp.evaluateDyDt(0.0, y);
+                        }
+                        return y[0];
+                    }
+                },
+
+                new Bench("evaluateDyDt fast") {
+                    final DoublePendulum dp = DoublePendulum.defaultPendulum();
+
+                    {
+                        dp.setTrigMode(DoublePendulum.TrigMode.FAST);
+                    }
+
+                    @Override
+                    double run(int ops) {
+                        for (int i = 0; i < ops; i++) {
+                            y[0] += 1e-9;
+                            dp.evaluateDyDt(0.0, y);
+                        }
+                        return y[0];
+                    }
+                },
+
+                chain(2),
+                chain(3),
+                chain(10),
+                chain(100),
+                chain(1000),
+
+                new Bench("getPendulum1") {
+                    final DoublePendulum dp = DoublePendulum.defaultPendulum();
+
+                    @Override
+                    double run(int ops) {
+                        double s = 0.0;
+                        for (int i = 0; i < ops; i++) s += dp.getPendulum1().getPosition().getX();
+                        return s;
+                    }
+                },
+
+                new Bench("getPendulum2") {
+                    final DoublePendulum dp = DoublePendulum.defaultPendulum();
+
+                    @Override
+                    double run(int ops) {
+                        double s = 0.0;
+                        for (int i = 0; i < ops; i++) s += dp.getPendulum2().getPosition().getX();
+                        return s;
+                    }
+                },
+
+                //the output loop of DoublePendulum.main without the iteration and the file
+                new Bench("energy") {
+                    final DoublePendulum dp = DoublePendulum.defaultPendulum();
+
+                    @Override
+                    double run(int ops) {
+                        double s = 0.0;
+                        for (int i = 0; i < ops; i++) {
+                            Particle3D p1 = dp.getPendulum1();
+                            Particle3D p2 = dp.getPendulum2();
+                            double ke = p1.kineticEnergy() + p2.kineticEnergy();
+                            double v = DoublePendulum.GRAVITY * (p1.getMass() * p1.getPosition().getY() + p2.getMass() * p2.getPosition().getY());
+                            s += ke + v;
+                        }
+                        return s;
+                    }
+                },
+
+                //the same output loop using the allocation free readout
+                new Bench("readObservables") {
+                    final DoublePendulum dp = DoublePendulum.defaultPendulum();
+                    final double[] obs = new double[DoublePendulum.OBSERVABLES];
+
+                    @Override
+                    double run(int ops) {
+                        double s = 0.0;
+                        for (int i = 0; i < ops; i++) {
+                            dp.readObservables(obs);
+                            s += obs[DoublePendulum.TOTAL];
+                        }
+                        return s;
+                    }
+                },
+
+                new Bench("Vector3D.addVector3D") {
+                    @Override
+                    double run(int ops) {
+                        double s = 0.0;
+                        for (int i = 0; i < ops; i++) s += Vector3D.addVector3D(a, b).getX();
+                        return s;
+                    }
+                },
+
+                new Bench("Vector3D.subVector3D") {
+                    @Override
+                    double run(int ops) {
+                        double s = 0.0;
+                        for (int i = 0; i < ops; i++) s += Vector3D.subVector3D(a, b).getX();
+                        return s;
+                    }
+                },
+
+                new Bench("Vector3D.multVector3D") {
+                    @Override
+                    double run(int ops) {
+                        double s = 0.0;
+                        for (int i = 0; i < ops; i++) s += Vector3D.multVector3D(a, i).getX();
+                        return s;
+                    }
+                },
+
+                new Bench("Vector3D.divVector3D") {
+                    @Override
+                    double run(int ops) {
+                        double s = 0.0;
+                        for (int i = 0; i < ops; i++) s += Vector3D.divVector3D(a, i + 1).getX();
+                        return s;
+                    }
+                },
+
+                new Bench("Vector3D.dotVector3D") {
+                    @Override
+                    double run(int ops) {
+                        double s = 0.0;
+                        for (int i = 0; i < ops; i++) s += Vector3D.dotVector3D(a, b);
+                        return s;
+                    }
+                },
+
+                new Bench("Vector3D.crossVector3D") {
+                    @Override
+                    double run(int ops) {
+                        double s = 0.0;
+                        for (int i = 0; i < ops; i++) s += Vector3D.crossVector3D(a, b).getX();
+                        return s;
+                    }
+                },
+
+                new Bench("Vector3D.addVector3D into") {
+                    final Vector3D out = new Vector3D();
+
+                    @Override
+                    double run(int ops) {
+                        double s = 0.0;
+                        for (int i = 0; i < ops; i++) s += Vector3D.addVector3D(a, b, out).getX();
+                        return s;
+                    }
+                },
+
+                //velocity verlet of a particle on a spring, which should allocate nothing
+                new Bench("Particle3D leapfrog") {
+                    final Particle3D p = new Particle3D(1.0, new Vector3D(1.0, 0.0, 0.0), new Vector3D(0.0, 1.0, 0.0), null);
+                    final Vector3D force = new Vector3D(), newForce = new Vector3D();
+
+                    @Override
+                    double run(int ops) {
+                        Vector3D.multVector3D(p.getPosition(), -1.0, force);
+                        for (int i = 0; i < ops; i++) {
+                            p.leapPosition(1e-3, force);
+                            Vector3D.multVector3D(p.getPosition(), -1.0, newForce);
+                            p.leapVelocity(1e-3, force, newForce);
+                            force.set(newForce);
+                        }
+                        return p.kineticEnergy();
+                    }
+                },
+
+                new Bench("Vector3D.mag") {
+                    @Override
+                    double run(int ops) {
+                        double s = 0.0;
+                        for (int i = 0; i < ops; i++) s += a.mag();
+                        return s;
+                    }
+                },
+        };
+    }
+
+    /**
+     * Bytes allocated so far by the current thread, or -1 if the JVM cannot tell us.
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    /**
+     * Time a round of at least ROUND_NANOS, doubling the number of operations until it is long enough.
+     * Returns {operations, nanoseconds, bytes allocated}.
+     */
+    private static long[] round(Bench bench, int ops) {
+        for (;;) {
+            long bytes = allocatedBytes();
+            long start = System.nanoTime();
+            sink += bench.run(ops);
+            long elapsed = System.nanoTime() - start;
+            bytes = bytes < 0 ? -1 : allocatedBytes() - bytes;
+            if (elapsed >= ROUND_NANOS || ops >= Integer.MAX_VALUE / 2) return new long[]{ops, elapsed, bytes};
+            ops *= 2;
+        }
+    }
+
+    public static void main(String[] args) {
+
+        String filter = args.length > 0 ? args[0] : "";
+
+        System.out.printf("%-32s %16s %14s %12s%n", "benchmark", "ops/s", "ns/op", "B/op");
+
+        for (Bench bench : benchmarks()) {
+
+            if (!bench.name.contains(filter)) continue;
+
+            int ops = 1;
+            for (int i = 0; i < WARMUP_ROUNDS; i++) ops = (int) round(bench, ops)[0];
+
+            long totalOps = 0, totalNanos = 0, totalBytes = 0;
+            for (int i = 0; i < MEASURE_ROUNDS; i++) {
+                long[] r = round(bench, ops);
+                totalOps += r[0];
+                totalNanos += r[1];
+                totalBytes += r[2];
+            }
+
+            System.out.printf("%-32s %16.1f %14.2f %12.1f%n", bench.name,
+                    totalOps * 1e9 / totalNanos,
+                    (double) totalNanos / totalOps,
+                    totalBytes < 0 ? Double.NaN : (double) totalBytes / totalOps);
+        }
+    }
+
+}
@@ -0,0 +1,230 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+/**
+ * Periodic binary checkpoints of a DoublePendulum, from which DoublePendulum.fromCheckpoint carries on a run
+ * exactly where it left off.
+ *
+ * A checkpoint is SIZE bytes, all values little endian:
+ * <pre>
+ *   int    magic (MAGIC)
+ *   int    version (VERSION)
+ *   double mass1, mass2, length1, length2
+ *   double time
+ *   double theta1, theta2, omega1, omega2
+ *   double absTol, relTol, the adaptive step size and the last error of advanceTo
+ *   long   accepted and rejected steps of advanceTo
+ *   int    1 if the last adaptive step was rejected
+ *   int    1 if the trig mode is FAST
+ *   int    CRC32 of everything before it
+ *   int    unused
+ * </pre>
+ * Every double is stored as its raw bits, so nothing is lost. The derived parameters of the equations of motion
+ * are not stored; they are recomputed from the masses and lengths in the same way, giving the same bits.
+ *
+ * Added to a pendulum as a StepListener, the checkpoint encodes the pendulum into a buffer every interval steps
+ * and hands the buffer to a background thread, which writes it to a temporary file, forces it to the disk and
+ * moves it over the checkpoint file atomically. A crash at any point leaves either the old or the new checkpoint.
+ * The integrating thread only ever spends the time to encode the buffer: if the previous write is still going
+ * when the next checkpoint is due, it is put off to the first step after the write has finished.
+ */
+public class DPCheckpoint implements StepListener, Closeable {
+
+    public static final int MAGIC = 0x4450434B; //"DPCK"
+    public static final int VERSION = 1;
+    public static final int SIZE = 144;
+
+    private final Path path, tmp;
+    private final long interval;
+
+    private final ByteBuffer buffer = ByteBuffer.allocate(SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final AtomicBoolean writing = new AtomicBoolean(false);
+    private final ExecutorService writer;
+
+    private long steps = 0;
+    private volatile long written = 0;
+    private volatile IOException failure;
+
+    /**
+     * Create a checkpoint that has to be added to the pendulum with addStepListener.
+     *
+     * @param path the checkpoint file, replaced by every checkpoint
+     * @param interval the number of steps between checkpoints
+     */
+    public DPCheckpoint(Path path, long interval) {
+
+        if (interval < 1) throw new IllegalArgumentException("Interval must be at least 1: " + interval);
+
+        this.path = path;
+        this.tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        this.interval = interval;
+
+        writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "DPCheckpoint");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    @Override
+    public void stepTaken(DoublePendulum system, double tPrev, double[] yPrev, double t, double[] y) {
+
+        if (++steps < interval || !writing.compareAndSet(false, true)) return;
+        steps = 0;
+
+        encode(system, buffer);
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    writeAtomically(buffer, path, tmp);
+                    written++;
+                } catch (IOException e) {
+                    if (failure == null) failure = e;
+                } finally {
+                    writing.set(false);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the number of checkpoints written so far.
+     */
+    public long getWritten() {
+        return written;
+    }
+
+    /**
+     * Wait for the checkpoint being written, if any, and stop the background thread.
+     *
+     * @throws IOException the first failure to write a checkpoint
+     */
+    @Override
+    public void close() throws IOException {
+
+        writer.shutdown();
+        try {
+            writer.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) throw failure;
+    }
+
+    /**
+     * Write a checkpoint of the pendulum now, on the calling thread.
+     */
+    public static void write(DoublePendulum dp, Path path) throws IOException {
+
+        ByteBuffer buffer = ByteBuffer.allocate(SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        encode(dp, buffer);
+        writeAtomically(buffer, path, path.resolveSibling(path.getFileName() + ".tmp"));
+    }
+
+    /**
+     * Read a checkpoint back into a new pendulum.
+     *
+     * @throws IOException if the file cannot be read or is not a valid checkpoint
+     */
+    public static DoublePendulum read(Path path) throws IOException {
+
+        byte[] bytes = Files.readAllBytes(path);
+        if (bytes.length != SIZE) throw new IOException(path + " is not a checkpoint: " + bytes.length + " bytes");
+
+        ByteBuffer in = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        if (in.getInt(0) != MAGIC) throw new IOException(path + " is not a checkpoint");
+        if (in.getInt(4) != VERSION) throw new IOException("Unsupported checkpoint version " + in.getInt(4));
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, SIZE - 8);
+        if (in.getInt(SIZE - 8) != (int) crc.getValue()) throw new IOException(path + " is corrupt");
+
+        in.position(8);
+        return DoublePendulum.readCheckpoint(in);
+    }
+
+    private static void encode(DoublePendulum dp, ByteBuffer buffer) {
+
+        buffer.clear();
+        buffer.putInt(MAGIC).putInt(VERSION);
+        dp.writeCheckpoint(buffer);
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int) crc.getValue()).putInt(0);
+        buffer.flip();
+    }
+
+    /**
+     * Write the buffer to tmp, force it to the disk and move it over path.
+     */
+    static void writeAtomically(ByteBuffer buffer, Path path, Path tmp) throws IOException {
+
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer out = buffer.duplicate();
+            while (out.hasRemaining()) channel.write(out);
+            channel.force(true);
+        }
+        Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Run the pendulum of Main until the given simulated time, carrying on from the checkpoint file if there is
+     * one and checkpointing it every 10^6 steps. A run restarted after a crash only does what is left, so it
+     * ends at the same time as one that was never interrupted.
+     *
+     * usage: java DPCheckpoint checkpoint seconds [h]
+     */
+    public static void main(String[] args) throws IOException {
+
+        if (args.length < 2) {
+            System.err.println("usage: java DPCheckpoint checkpoint seconds [h]");
+            System.exit(1);
+        }
+
+        Path path = Paths.get(args[0]);
+        double seconds = Double.parseDouble(args[1]);
+        double h = args.length >= 3 ? Double.parseDouble(args[2]) : 1e-5;
+
+        DoublePendulum dp = Files.exists(path) ? DoublePendulum.fromCheckpoint(path) : DoublePendulum.defaultPendulum();
+        System.out.println("starting at t = " + dp.getTime());
+
+        try (DPCheckpoint checkpoint = new DPCheckpoint(path, 1000000)) {
+
+            dp.addStepListener(checkpoint);
+            long steps = Math.max(0L, Math.round((seconds - dp.getTime()) / h));
+            if (steps == 0) System.out.println("already at t = " + dp.getTime() + ", target " + seconds + " reached");
+            while (steps > 0) {
+                int n = (int) Math.min(steps, 1000000);
+                dp.iterate(n, h);
+                steps -= n;
+            }
+            dp.removeStepListener(checkpoint);
+        }
+
+        write(dp, path);
+        double[] y = new double[4];
+        dp.readState(y);
+        System.out.println("t = " + dp.getTime() + ", state = " + java.util.Arrays.toString(y));
+    }
+
+}
@@ -0,0 +1,126 @@
+/**
+ * An immutable copy of the state of a DoublePendulum at one instant.
+ *
+ * Snapshots are published by the thread integrating the pendulum and can be read from any other thread,
+ * such as the swing thread, without locking: every field of a snapshot belongs to the same time step.
+ */
+public final class DPSnapshot {
+
+    private final double time;
+
+    /**
+     * A private copy of the state array: the two angles followed by the two angular frequencies.
+     */
+    private final double[] state;
+    private final double mass1, mass2, length1, length2;
+
+    /**
+     * System.nanoTime() when the snapshot was taken.
+     */
+    private final long nanoTime;
+
+    /**
+     * @param time the simulation time of the state
+     * @param state the state array of the pendulum: the two angles followed by the two angular frequencies
+     */
+    DPSnapshot(double time, double[] state, double mass1, double mass2, double length1, double length2) {
+        this.time = time;
+        this.state = state.clone();
+        this.mass1 = mass1;
+        this.mass2 = mass2;
+        this.length1 = length1;
+        this.length2 = length2;
+        this.nanoTime = System.nanoTime();
+    }
+
+    /**
+     *  Get the position and velocity of p1 and return them as a particle3D object, converting back from polar coords.
+     */
+    public Particle3D getPendulum1() {
+
+        double theta1 = state[0], omega1 = state[2];
+
+        return new Particle3D(mass1,
+                new Vector3D(length1*Math.sin(theta1), -length1*Math.cos(theta1), 0.0), //position
+                new Vector3D(length1*omega1*Math.cos(theta1), length1*omega1*Math.sin(theta1), 0.0), //velocity
+                null);
+    }
+
+    /**
+     *  Get the position and velocity of p2 and return them as a particle3D object, converting back from polar coords.
+     */
+    public Particle3D getPendulum2() {
+
+        double theta1 = state[0], theta2 = state[1], omega1 = state[2], omega2 = state[3];
+
+        return new Particle3D(mass2,
+                new Vector3D(length1*Math.sin(theta1) + length2*Math.sin(theta2),
+                        -length1*Math.cos(theta1) - length2*Math.cos(theta2),
+                        0.0), //position
+                new Vector3D(length1*omega1*Math.cos(theta1) + length2*omega2*Math.cos(theta2),
+                        length1*omega1*Math.sin(theta1) + length2*omega2*Math.sin(theta2),
+                        0.0), //velocity
+                null);
+    }
+
+    /**
+     * Fill out with the positions and velocities of the bobs and the energies of the system, without allocating.
+     * The layout is that of DoublePendulum.readObservables.
+     *
+     * @param out an array of at least DoublePendulum.OBSERVABLES elements
+     */
+    public void readObservables(double[] out) {
+        DoublePendulum.observables(state, mass1, mass2, length1, length2, out);
+    }
+
+    /**
+     * return the simulation time of this snapshot.
+     */
+    public double getTime() {
+        return time;
+    }
+
+    public double getTheta1() {
+        return state[0];
+    }
+
+    public double getTheta2() {
+        return state[1];
+    }
+
+    public double getOmega1() {
+        return state[2];
+    }
+
+    public double getOmega2() {
+        return state[3];
+    }
+
+    public double getMaxLength() {
+        return length1 + length2;
+    }
+
+    public double getMass1() {
+        return mass1;
+    }
+
+    public double getMass2() {
+        return mass2;
+    }
+
+    public double getLength1() {
+        return length1;
+    }
+
+    public double getLength2() {
+        return length2;
+    }
+
+    /**
+     * @return System.nanoTime() when the snapshot was taken.
+     */
+    public long getNanoTime() {
+        return nanoTime;
+    }
+
+}
@@ -1,5 +1,7 @@
 import javax.swing.*;
 import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 
 /**
  * Created by Callum on 22/12/2017.
@@ -23,6 +25,42 @@ public class DPViewer extends JComponent {
      */
     private DoublePendulum dp;
 
+    /**
+     * Positions and energies of the pendulum being drawn, reused on every paint.
+     */
+    private final double[] obs = new double[DoublePendulum.OBSERVABLES];
+
+    /**
+     * The driver running the pendulum in real time, if any, and the timer repainting the view at the display's
+     * refresh rate while it does.
+     */
+    private RealTimeDriver driver;
+    private Timer refresh;
+
+    /**
+     * The recent positions of the second bob, and the layer that draws them as a fading trail.
+     */
+    private final TrailBuffer trail = new TrailBuffer(4096);
+    private final TrailLayer trailLayer = new TrailLayer(trail, new Color(0x3366cc), 0.03f);
+    private boolean showTrail = true;
+
+    public boolean isShowTrail() {
+        return showTrail;
+    }
+
+    public void setShowTrail(boolean showTrail) {
+        this.showTrail = showTrail;
+        repaint();
+    }
+
+    /**
+     * Forget the trail drawn so far.
+     */
+    public void clearTrail() {
+        trail.clear();
+        repaint();
+    }
+
     /**
      * A helper method to draw a centered circle
      *
@@ -46,6 +84,8 @@ public class DPViewer extends JComponent {
     @Override
     protected void paintComponent (Graphics g) {
 
+        long start = System.nanoTime();
+
         //first get component's dimensions
         int width = getWidth();
         int height = getHeight();
@@ -65,31 +105,42 @@ public class DPViewer extends JComponent {
         double Ox = (double) width/2.0;
         double Oy = (double) height/2.0;
 
+        //the latest published state, from the pendulum the driver is running if there is one
+        DPSnapshot snapshot = driver != null ? driver.getPendulum().getSnapshot() : dp.getSnapshot();
+
         //set up the scale factors Sx, Sy
-        double Sy = (double) -height/(2*dp.getMaxLength());
+        double Sy = (double) -height/(2*snapshot.getMaxLength());
         double Sx = -Sy;
 
-        //get the real world positions and notify waiting threads that the positions have been obtained.
-        Vector3D p1pos, p2pos;
-        synchronized (dp) {
-            p1pos = dp.getPendulum1().getPosition();
-            p2pos = dp.getPendulum2().getPosition();
-            dp.notifyAll();
+        //get the real world positions from the latest published state, without holding up the simulation.
+        SimulationMetrics.METRICS.recordSnapshotLatency(start - snapshot.getNanoTime());
+        if (driver != null) driver.readInterpolated(start, obs);
+        else snapshot.readObservables(obs);
+        double x1 = obs[DoublePendulum.X1], y1 = obs[DoublePendulum.Y1];
+        double x2 = obs[DoublePendulum.X2], y2 = obs[DoublePendulum.Y2];
+
+        //extend the trail of the second bob if it has moved, and draw it underneath the pendulum
+        if (showTrail) {
+            long last = trail.count() - 1;
+            if (last < 0 || trail.getX(last) != x2 || trail.getY(last) != y2) trail.add(x2, y2);
+            trailLayer.paint(g, width, height, Ox, Oy, Sx, Sy);
         }
+
         //draw the string connecting the first mass to the origin, and then to the second mass
         g.setColor(Color.BLUE);
-        g.drawLine((int) Ox, (int) Oy,(int) (Ox + Sx*p1pos.getX()), (int) (Oy + Sy*p1pos.getY()));
-        g.drawLine((int) (Ox + Sx*p1pos.getX()),
-                (int) (Oy + Sy*p1pos.getY()),
-                (int) (Ox + Sx*p2pos.getX()),
-                (int) (Oy + Sy*p2pos.getY())
+        g.drawLine((int) Ox, (int) Oy,(int) (Ox + Sx*x1), (int) (Oy + Sy*y1));
+        g.drawLine((int) (Ox + Sx*x1),
+                (int) (Oy + Sy*y1),
+                (int) (Ox + Sx*x2),
+                (int) (Oy + Sy*y2)
         );
 
         //add bobs
         g.setColor(Color.red);
-        drawCenteredCircle(g, (int) (Ox+Sx*p1pos.getX()), (int) (Oy+Sy*p1pos.getY()), BOB_RADIUS);
-        drawCenteredCircle(g, (int) (Ox+Sx*p2pos.getX()), (int) (Oy+Sy*p2pos.getY()), BOB_RADIUS);
+        drawCenteredCircle(g, (int) (Ox+Sx*x1), (int) (Oy+Sy*y1), BOB_RADIUS);
+        drawCenteredCircle(g, (int) (Ox+Sx*x2), (int) (Oy+Sy*y2), BOB_RADIUS);
 
+        SimulationMetrics.METRICS.recordPaint(System.nanoTime() - start);
     }
 
     /**
@@ -106,4 +157,30 @@ public class DPViewer extends JComponent {
 
     }
 
+    /**
+     * a constructor to visualise a double pendulum run in real time by the driver. The view repaints itself at
+     * the refresh rate of the display, interpolating between the states published by the driver.
+     * @param driver the driver of the double pendulum to be visualised.
+     */
+    public DPViewer(RealTimeDriver driver){
+
+        this(driver.getPendulum());
+        this.driver = driver;
+
+        int rate = DisplayMode.REFRESH_RATE_UNKNOWN;
+        if (!GraphicsEnvironment.isHeadless()) {
+            rate = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDisplayMode().getRefreshRate();
+        }
+        if (rate == DisplayMode.REFRESH_RATE_UNKNOWN) rate = 60;
+
+        refresh = new Timer(1000 / rate, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                repaint();
+            }
+        });
+        refresh.setCoalesce(true);
+        refresh.start();
+    }
+
 }
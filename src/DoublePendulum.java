@@ -1,7 +1,16 @@
-import java.io.BufferedWriter;
-import java.io.FileWriter;
 import java.io.IOException;
-
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * A double pendulum in the plane, integrated in polar coords.
+ *
+ * The pendulum is advanced by one thread at a time with iterate or advanceTo. That thread publishes an immutable
+ * DPSnapshot of the state every publishInterval steps, counted across calls, and whenever it calls publish;
+ * other threads, such as the viewers, read the latest one with getSnapshot and never block the integration.
+ */
 public class DoublePendulum {
 
     /**
@@ -26,8 +35,32 @@ public class DoublePendulum {
      */
     public static final double GRAVITY = 9.81;
 
+    /**
+     * Indices into the array filled by readObservables: the cartesian positions and velocities of the two bobs,
+     * followed by the kinetic, potential and total energy of the system. OBSERVABLES is the length of the array.
+     */
+    public static final int X1 = 0, Y1 = 1, VX1 = 2, VY1 = 3, X2 = 4, Y2 = 5, VX2 = 6, VY2 = 7,
+            KINETIC = 8, POTENTIAL = 9, TOTAL = 10, OBSERVABLES = 11;
+
     private double time = 0.0;
 
+    /**
+     * Ways of evaluating the sines and cosines in the equations of motion.
+     * STRICT calls Math.sin and Math.cos four times per evaluation.
+     * FAST evaluates the sine and cosine of the two angles with the FastTrig polynomials, within
+     * FastTrig.MAX_ERROR of Math, and obtains those of their difference from them by the addition formulae.
+     * The RHS then differs from that of STRICT by at most FastTrig.MAX_RHS_ERROR relative, which main of
+     * FastTrig checks; trajectories differ by that much per step, amplified by the chaos of the motion.
+     */
+    public enum TrigMode { STRICT, FAST }
+
+    //evaluations of the RHS since they were last added to the metrics
+    private long rhsEvaluations = 0;
+
+    //set when the trig mode is FAST, and the sine and cosine it fills
+    private boolean fastTrig = false;
+    private final double[] trig = new double[2];
+
     /**
      * Dimensionality of the system.
      */
@@ -51,12 +84,84 @@ public class DoublePendulum {
     private double[] state = new double[Dim];
 
     /**
-     * Two arrays for holding the previous and intermediate points in the solver.
+     * The latest published snapshot of the state, the number of steps between publications, and the number of
+     * steps taken since the last one.
      */
+    private volatile DPSnapshot snapshot;
+    private int publishInterval = 1000;
+    private int unpublishedSteps = 0;
 
-    private double[] midpt = new double[Dim];
+    /**
+     * The scheme used by iterate to advance the state by one step.
+     */
+    private Integrator integrator = new RK4Integrator();
+
+    //the number of integrator steps making up each step of iterate
+    private int substeps = 1;
+
+    /**
+     * The listeners told of every step, and the state at the start of the current step, which is only kept up to
+     * date while there are listeners. The array of listeners is replaced, never modified.
+     */
+    private StepListener[] listeners = new StepListener[0];
     private double[] prev = new double[Dim];
 
+    /**
+     * Coefficients of the Dormand-Prince 5(4) pair used by advanceTo: nodes C, the Runge-Kutta matrix A
+     * (whose last row is also the fifth order weights) and E, the fifth minus the fourth order weights.
+     */
+    private static final double C2 = 1.0/5.0, C3 = 3.0/10.0, C4 = 4.0/5.0, C5 = 8.0/9.0;
+    private static final double A21 = 1.0/5.0;
+    private static final double A31 = 3.0/40.0, A32 = 9.0/40.0;
+    private static final double A41 = 44.0/45.0, A42 = -56.0/15.0, A43 = 32.0/9.0;
+    private static final double A51 = 19372.0/6561.0, A52 = -25360.0/2187.0, A53 = 64448.0/6561.0, A54 = -212.0/729.0;
+    private static final double A61 = 9017.0/3168.0, A62 = -355.0/33.0, A63 = 46732.0/5247.0, A64 = 49.0/176.0, A65 = -5103.0/18656.0;
+    private static final double A71 = 35.0/384.0, A73 = 500.0/1113.0, A74 = 125.0/192.0, A75 = -2187.0/6784.0, A76 = 11.0/84.0;
+    private static final double E1 = 71.0/57600.0, E3 = -71.0/16695.0, E4 = 71.0/1920.0, E5 = -17253.0/339200.0,
+            E6 = 22.0/525.0, E7 = -1.0/40.0;
+
+    /**
+     * Weights of the fifth coefficient of the Dormand-Prince continuous extension (Hairer, Norsett and Wanner),
+     * which with the values and derivatives at the ends of a step gives the solution within it to 4th order.
+     */
+    private static final double D1 = -12715105075.0/11282082432.0, D3 = 87487479700.0/32700410799.0,
+            D4 = -10690763975.0/1880347072.0, D5 = 701980252875.0/199316789632.0, D6 = -1453857185.0/822651844.0,
+            D7 = 69997945.0/29380423.0;
+
+    /**
+     * Params of the PI step size controller: safety factor, bounds on the change of step and the exponents.
+     */
+    private static final double SAFETY = 0.9, FAC_MIN = 0.2, FAC_MAX = 10.0;
+    private static final double PI_BETA = 0.04, PI_EXPO = 0.2 - 0.75*PI_BETA;
+
+    /**
+     * Stages and working point of the adaptive integrator. k1 holds the RHS at the current state whenever
+     * fsalValid is set.
+     */
+    private double[] k1 = new double[Dim], k2 = new double[Dim], k3 = new double[Dim], k4 = new double[Dim],
+            k5 = new double[Dim], k6 = new double[Dim], k7 = new double[Dim];
+    private double[] ytmp = new double[Dim];
+    private boolean fsalValid = false;
+
+    //set while advanceTo is stepping, so that repeatStep knows which scheme took the step
+    private boolean advancing = false;
+
+    //the first stage of the step last accepted by advanceTo, for readDenseOutput
+    private double[] kPrev = new double[Dim];
+
+    //stages for repeatStep, allocated on first use
+    private double[][] repeatStages;
+
+    /**
+     * State of the adaptive integrator: tolerances, the next step size (0 if not yet chosen), the error of
+     * the last accepted step and whether the last attempt was rejected, and the step counts.
+     */
+    private double absTol = 1e-9, relTol = 1e-9;
+    private double hAdaptive = 0.0;
+    private double errPrev = 1e-4;
+    private boolean rejectedLast = false;
+    private long acceptedSteps = 0, rejectedSteps = 0;
+
 
     /** Here we initialise the initial conditions of the system. Specify the initial conditions of the pendulum with 2 Particle3D objects.
      * We simulate the double pendulum only in the plane so the z coordinates can be ignored.
@@ -96,7 +201,110 @@ public class DoublePendulum {
         length1 = Math.sqrt(length1);
         length2 = Math.sqrt(length2);
 
-        //compute the parameters that are used in the equation of motions
+        computeParameters();
+
+        publish();
+
+    }
+
+    /**
+     * Set up a double pendulum directly in polar coords, without going through cartesian Particle3D objects.
+     */
+    private DoublePendulum(double mass1, double mass2, double length1, double length2, double[] state, double time){
+
+        this.mass1 = mass1;
+        this.mass2 = mass2;
+        this.length1 = length1;
+        this.length2 = length2;
+        System.arraycopy(state, 0, this.state, 0, Dim);
+        this.time = time;
+
+        computeParameters();
+
+        publish();
+    }
+
+    /**
+     * Create a double pendulum from the angles of the two arms, measured from the downward vertical, and their
+     * angular frequencies. The second angle is that of the arm from p1 to p2.
+     *
+     * @param mass1 the mass of p1
+     * @param mass2 the mass of p2
+     * @param length1 the length of the arm from the origin to p1
+     * @param length2 the length of the arm from p1 to p2
+     */
+    public static DoublePendulum fromAngles(double mass1, double mass2, double length1, double length2,
+                                            double theta1, double theta2, double omega1, double omega2){
+
+        if (!(mass1 > 0.0) || !(mass2 > 0.0) || !(length1 > 0.0) || !(length2 > 0.0)) {
+            throw new IllegalArgumentException("Masses and lengths must be positive");
+        }
+        return new DoublePendulum(mass1, mass2, length1, length2, new double[]{theta1, theta2, omega1, omega2}, 0.0);
+    }
+
+    /**
+     * Create the double pendulum of main with its default initial conditions: unit masses 20cm and 40cm below the
+     * origin, p2 moving at 4m/s in the positive x direction.
+     */
+    static DoublePendulum defaultPendulum() {
+        return new DoublePendulum(
+                new Particle3D(1.0, new Vector3D(0.0, -0.2, 0.0), new Vector3D(0.0, 0.0, 0.0), null),
+                new Particle3D(1.0, new Vector3D(0.0, -0.4, 0.0), new Vector3D(4.0, 0.0, 0.0), null));
+    }
+
+    /**
+     * Restore a double pendulum from a checkpoint file written by DPCheckpoint. The time, state, trig mode and
+     * adaptive step control are restored bit for bit, so the integration carries on exactly as it would have
+     * done. The integrator, substeps and any step listeners are not part of the checkpoint and have to be set
+     * again.
+     *
+     * @param path the checkpoint file
+     * @throws IOException if the file cannot be read or is not a valid checkpoint
+     */
+    public static DoublePendulum fromCheckpoint(Path path) throws IOException {
+        return DPCheckpoint.read(path);
+    }
+
+    /**
+     * Put everything needed to carry on the integration exactly, in the layout of DPCheckpoint.
+     */
+    void writeCheckpoint(ByteBuffer out){
+
+        out.putDouble(mass1).putDouble(mass2).putDouble(length1).putDouble(length2);
+        out.putDouble(time);
+        for (int i = 0; i < Dim; i++) out.putDouble(state[i]);
+        out.putDouble(absTol).putDouble(relTol).putDouble(hAdaptive).putDouble(errPrev);
+        out.putLong(acceptedSteps).putLong(rejectedSteps);
+        out.putInt(rejectedLast ? 1 : 0).putInt(fastTrig ? 1 : 0);
+    }
+
+    /**
+     * The inverse of writeCheckpoint.
+     */
+    static DoublePendulum readCheckpoint(ByteBuffer in){
+
+        double mass1 = in.getDouble(), mass2 = in.getDouble(), length1 = in.getDouble(), length2 = in.getDouble();
+        double time = in.getDouble();
+        double[] state = new double[4];
+        for (int i = 0; i < 4; i++) state[i] = in.getDouble();
+
+        DoublePendulum dp = new DoublePendulum(mass1, mass2, length1, length2, state, time);
+        dp.absTol = in.getDouble();
+        dp.relTol = in.getDouble();
+        dp.hAdaptive = in.getDouble();
+        dp.errPrev = in.getDouble();
+        dp.acceptedSteps = in.getLong();
+        dp.rejectedSteps = in.getLong();
+        dp.rejectedLast = in.getInt() != 0;
+        dp.fastTrig = in.getInt() != 0;
+        return dp;
+    }
+
+    /**
+     * compute the parameters that are used in the equation of motions from the masses and lengths.
+     */
+    private void computeParameters(){
+
         alpha = mass2/mass1;
         double beta = length2/length1;
         Gamma = GRAVITY/length1;
@@ -104,12 +312,11 @@ public class DoublePendulum {
         OnePlusAlphaGamma = OnePlusAlpha * Gamma;
         AlphaBeta = alpha * beta;
         OneOverBeta = 1.0/beta;
-
     }
 
     /**
-     * A method to advance the state of the system by performing repeated integrations according to the Runge-Kutta algorithm.
-     * We use the 4th order Runge-Kutta here.
+     * A method to advance the state of the system by performing repeated integrations with the current integrator,
+     * by default the 4th order Runge-Kutta algorithm.
      *
      * perform n steps of the integration, with each step being h in length.
      *
@@ -119,60 +326,125 @@ public class DoublePendulum {
 
     public void iterate(int n, double h){
 
-        //params that used in the equations but are consts and only need to  be calulated once.
-        final double HALF = 0.5*h, THIRD = h/3.0, SIXTH = h/6.0;
+        final StepListener[] listeners = this.listeners;
 
         for (int step =  0; step < n; step++) {
 
-            synchronized (this) {
-
-                for (int i = 0; i < Dim; i++) midpt[i] = prev[i] = state[i];
-
+            double tPrev = time;
+            if (listeners.length > 0) System.arraycopy(state, 0, prev, 0, Dim);
 
-                //fill dydt with the A vector
-                evaluateDyDt(time, midpt);
+            if (substeps == 1) {
+                integrator.step(this, time, state, h);
+            } else {
+                double hs = h / substeps;
+                for (int k = 0; k < substeps; k++) integrator.step(this, time + k*hs, state, hs);
+            }
 
-                //add 1/6 A to the state and load midpt with the intermediate time point y+a/2
-                int k = 0;
-                for (double j : state) {
-                    j += SIXTH * dydt[k];
-                    midpt[k] = prev[k] + HALF * dydt[k];
-                    k++;
-                }
+            //increment the time
+            time += h;
 
-                //fill dydt with the b vector
-                evaluateDyDt(time + HALF, midpt);
-                // add 1/3 B to the state, load midpoint with the intermediate time point y + b/2
-                for (int i = 0; i < Dim; i++) {
-                    state[i] += THIRD * dydt[i];
-                    midpt[i] = prev[i] + HALF * dydt[i];
+            for (StepListener listener : listeners) listener.stepTaken(this, tPrev, prev, time, state);
 
-                }
+            if (++unpublishedSteps >= publishInterval) publish();
+        }
 
-                //fill dydt with the c vector
-                evaluateDyDt(time + HALF, midpt);
-                //Add 1/3 c to the state and load a midpoint with the final point y+c
-                for (int i = 0; i < Dim; i++) {
-                    state[i] += THIRD * dydt[i];
-                    midpt[i] = prev[i] + h * dydt[i];
-                }
+        //the state has moved on, the RHS stored by advanceTo is stale
+        fsalValid = false;
 
-                //fill dy/dt with the d vector
-                evaluateDyDt(time, midpt);
+        SimulationMetrics.METRICS.recordSteps(n, rhsEvaluations);
+        rhsEvaluations = 0;
+    }
 
-                //add 1/6 d to the state
+    /**
+     * Have the listener told of every step taken by iterate and advanceTo. Listeners must be added and removed
+     * by the integrating thread, or while the pendulum is not being integrated.
+     */
+    public void addStepListener(StepListener listener){
 
-                for (int i = 0; i < Dim; i++) {
-                    state[i] += SIXTH * dydt[i];
-                }
+        if (listener == null) throw new IllegalArgumentException("Listener must not be null");
+        StepListener[] grown = Arrays.copyOf(listeners, listeners.length + 1);
+        grown[listeners.length] = listener;
+        listeners = grown;
+    }
 
-                //increment the time
-                time += h;
+    public void removeStepListener(StepListener listener){
 
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i] == listener) {
+                StepListener[] shrunk = new StepListener[listeners.length - 1];
+                System.arraycopy(listeners, 0, shrunk, 0, i);
+                System.arraycopy(listeners, i + 1, shrunk, i, listeners.length - i - 1);
+                listeners = shrunk;
+                return;
             }
         }
     }
 
+    /**
+     * Publish an immutable copy of the current state for other threads to read, allocating the snapshot. To be
+     * called by the integrating thread when the other threads need the state as it is now, for example at the end
+     * of a tick.
+     */
+    public void publish(){
+
+        snapshot = new DPSnapshot(time, state, mass1, mass2, length1, length2);
+        unpublishedSteps = 0;
+    }
+
+    /**
+     * Obtain the latest published state of the system. This never blocks and may be called from any thread;
+     * the snapshot is at most publishInterval steps behind the integrating thread, or less if it calls publish.
+     *
+     * @return the latest snapshot
+     */
+    public DPSnapshot getSnapshot(){
+        return snapshot;
+    }
+
+    /**
+     * Set how many steps iterate and advanceTo take between publishing snapshots. The steps are counted across
+     * calls, so a caller stepping in short calls, one step at a time say, allocates a snapshot only every steps
+     * steps and otherwise steps without allocating; one that needs the state at the end of a call publishes it
+     * with publish.
+     *
+     * @param steps the number of steps between snapshots
+     */
+    public void setPublishInterval(int steps){
+
+        if (steps < 1) throw new IllegalArgumentException("Publish interval must be at least one step: " + steps);
+        publishInterval = steps;
+    }
+
+    /**
+     * Choose the scheme used by iterate. The integrator keeps working arrays, so it must not be shared
+     * with another pendulum.
+     *
+     * @param integrator the integration scheme, for example RK4Integrator or YoshidaIntegrator
+     */
+    public void setIntegrator(Integrator integrator){
+
+        if (integrator == null) throw new IllegalArgumentException("Integrator must not be null");
+        this.integrator = integrator;
+    }
+
+    public Integrator getIntegrator(){
+        return integrator;
+    }
+
+    /**
+     * Have iterate take each step of length h as substeps steps of h/substeps with the integrator, for example
+     * when an EnergyMonitor finds that h is too coarse. The time still advances by h per step.
+     */
+    public void setSubsteps(int substeps){
+
+        if (substeps < 1) throw new IllegalArgumentException("Substeps must be at least 1: " + substeps);
+        this.substeps = substeps;
+    }
+
+    public int getSubsteps(){
+        return substeps;
+    }
+
     /**
      *  Get the position and velocity of the p2 and return them as a particle3D object.
      *  converting back from  polar coords.
@@ -208,6 +480,68 @@ public class DoublePendulum {
 
    }
 
+    /**
+     * Copy the state of the system into out: the two angles followed by the two angular frequencies.
+     *
+     * @param out an array of at least 4 elements
+     */
+    public void readState(double[] out){
+        System.arraycopy(state, 0, out, 0, Dim);
+    }
+
+    /**
+     * Fill out with the positions and velocities of the bobs and the energies of the system, computed directly
+     * from the state without allocating. See X1 etc. for the layout.
+     *
+     * @param out an array of at least OBSERVABLES elements
+     */
+    public void readObservables(double[] out){
+        observables(state, mass1, mass2, length1, length2, out);
+    }
+
+    /**
+     * Convert the state y of a double pendulum to cartesian coords and energies, laid out as for readObservables.
+     */
+    static void observables(double[] y, double mass1, double mass2, double length1, double length2, double[] out){
+
+        double s1 = Math.sin(y[0]), c1 = Math.cos(y[0]);
+        double s2 = Math.sin(y[1]), c2 = Math.cos(y[1]);
+
+        double x1 = length1*s1, y1 = -length1*c1;
+        double vx1 = length1*y[2]*c1, vy1 = length1*y[2]*s1;
+        double x2 = x1 + length2*s2, y2 = y1 - length2*c2;
+        double vx2 = vx1 + length2*y[3]*c2, vy2 = vy1 + length2*y[3]*s2;
+
+        double ke = 0.5*mass1*(vx1*vx1 + vy1*vy1) + 0.5*mass2*(vx2*vx2 + vy2*vy2);
+        double v = GRAVITY*(mass1*y1 + mass2*y2);
+
+        out[X1] = x1; out[Y1] = y1; out[VX1] = vx1; out[VY1] = vy1;
+        out[X2] = x2; out[Y2] = y2; out[VX2] = vx2; out[VY2] = vy2;
+        out[KINETIC] = ke; out[POTENTIAL] = v; out[TOTAL] = ke + v;
+    }
+
+    /**
+     * The total energy of a double pendulum in the state y, computed directly without the cartesian coords.
+     */
+    static double totalEnergy(double[] y, double mass1, double mass2, double length1, double length2){
+
+        double c1 = Math.cos(y[0]), c2 = Math.cos(y[1]);
+        double w1 = length1*y[2], w2 = length2*y[3];
+
+        //|v2|^2 = (l1 w1)^2 + (l2 w2)^2 + 2 l1 l2 w1 w2 cos(theta1 - theta2)
+        double ke = 0.5*mass1*w1*w1 + 0.5*mass2*(w1*w1 + w2*w2 + 2.0*w1*w2*Math.cos(y[0] - y[1]));
+        double v = -GRAVITY*(mass1*length1*c1 + mass2*(length1*c1 + length2*c2));
+
+        return ke + v;
+    }
+
+    /**
+     * @return the total energy of the system, without allocating.
+     */
+    public double getTotalEnergy(){
+        return totalEnergy(state, mass1, mass2, length1, length2);
+    }
+
     /**
      * return the time elapsed since the start of the simulation.
      * @return
@@ -224,23 +558,360 @@ public class DoublePendulum {
      * @param t the time point
      * @param y the set of coords, y[i], at which to evalutate the RHS at.
      */
-    private void evaluateDyDt(double t, double[] y){
+    void evaluateDyDt(double t, double[] y){
 
-        dydt[0] = y[2]; dydt[1] = y[3];
+        evaluateDyDt(t, y, dydt);
+
+   }
+
+    /**
+     * Evaluate the RHS of the equations of motion at y into the array out, rather than into dydt.
+     *
+     * @param t the time point
+     * @param y the set of coords, y[i], at which to evalutate the RHS at.
+     * @param out the array to be loaded with dy[i]/dt
+     */
+    void evaluateDyDt(double t, double[] y, double[] out){
+
+        rhsEvaluations++;
+
+        if (fastTrig) {
+            evaluateFast(y, out);
+            return;
+        }
+
+        out[0] = y[2]; out[1] = y[3];
 
         double s01 = Math.sin(y[0] - y[1]);
         double c01 = Math.cos(y[0] - y[1]);
+        double s0 = Math.sin(y[0]);
+        double s1 = Math.sin(y[1]);
 
-        double nu1 = y[2]*y[2]*s01 - Gamma * Math.sin(y[1]);
-        double nu2 = OnePlusAlphaGamma * Math.sin(y[0]) + AlphaBeta*y[3]*y[3]*s01;
+        double nu1 = y[2]*y[2]*s01 - Gamma * s1;
+        double nu2 = OnePlusAlphaGamma * s0 + AlphaBeta*y[3]*y[3]*s01;
         double f = 1.0/(1.0 + alpha*s01*s01);
 
-        dydt[2] = - f * (nu2 + alpha*c01*nu1);
-        dydt[3] = f * OneOverBeta * (OnePlusAlpha*nu1 + c01*nu2);
-
+        out[2] = - f * (nu2 + alpha*c01*nu1);
+        out[3] = f * OneOverBeta * (OnePlusAlpha*nu1 + c01*nu2);
 
    }
 
+    /**
+     * evaluateDyDt in the FAST trig mode: the sines and cosines of the two angles come from the polynomials,
+     * each pair sharing one argument reduction, and those of their difference from the addition formulae.
+     */
+    private void evaluateFast(double[] y, double[] out){
+
+        out[0] = y[2]; out[1] = y[3];
+
+        FastTrig.sinCos(y[0], trig);
+        double s0 = trig[0], c0 = trig[1];
+        FastTrig.sinCos(y[1], trig);
+        double s1 = trig[0], c1 = trig[1];
+
+        double s01 = s0*c1 - c0*s1;
+        double c01 = c0*c1 + s0*s1;
+
+        double nu1 = y[2]*y[2]*s01 - Gamma * s1;
+        double nu2 = OnePlusAlphaGamma * s0 + AlphaBeta*y[3]*y[3]*s01;
+        double f = 1.0/(1.0 + alpha*s01*s01);
+
+        out[2] = - f * (nu2 + alpha*c01*nu1);
+        out[3] = f * OneOverBeta * (OnePlusAlpha*nu1 + c01*nu2);
+    }
+
+    /**
+     * Choose how the sines and cosines in the equations of motion are evaluated.
+     *
+     * @param mode STRICT for Math.sin and Math.cos, FAST for the FastTrig polynomials
+     */
+    public void setTrigMode(TrigMode mode){
+
+        if (mode == null) throw new IllegalArgumentException("Trig mode must not be null");
+        fastTrig = mode == TrigMode.FAST;
+    }
+
+    public TrigMode getTrigMode(){
+        return fastTrig ? TrigMode.FAST : TrigMode.STRICT;
+    }
+
+    /**
+     * Set the absolute and relative tolerances used by advanceTo. The error of each accepted step, measured
+     * component-wise against absTol + relTol*|y|, is kept below one in the root mean square.
+     *
+     * @param absTol the absolute tolerance
+     * @param relTol the relative tolerance
+     */
+    public void setTolerances(double absTol, double relTol){
+
+        if (!(absTol >= 0.0) || !(relTol >= 0.0) || absTol + relTol == 0.0) {
+            throw new IllegalArgumentException("Tolerances must be non-negative and not both zero: " + absTol + ", " + relTol);
+        }
+        this.absTol = absTol;
+        this.relTol = relTol;
+        //let the next step pick a fresh initial step for the new tolerances
+        hAdaptive = 0.0;
+    }
+
+    public double getAbsTol(){
+        return absTol;
+    }
+
+    public double getRelTol(){
+        return relTol;
+    }
+
+    /**
+     * Advance the system to the time tEnd with an adaptive step size, using the Dormand-Prince 5(4) embedded
+     * Runge-Kutta pair. The fourth order solution estimates the error of each step, steps that fail the
+     * tolerances are rejected and retried with a smaller step, and the step size is chosen by a PI controller.
+     * The last stage of an accepted step is the first of the next (first same as last), so an accepted step
+     * costs six evaluations of the RHS.
+     *
+     * @param tEnd the time to integrate up to.
+     */
+    public void advanceTo(double tEnd){
+
+        long stepsBefore = acceptedSteps + rejectedSteps;
+        advancing = true;
+
+        try {
+            advance(tEnd);
+        } finally {
+            advancing = false;
+        }
+
+        SimulationMetrics.METRICS.recordSteps(acceptedSteps + rejectedSteps - stepsBefore, rhsEvaluations);
+        rhsEvaluations = 0;
+    }
+
+    /**
+     * The step loop of advanceTo.
+     */
+    private void advance(double tEnd){
+
+        while (time < tEnd) {
+
+            //chosen afresh at the start, and when a listener has changed the tolerances
+            if (hAdaptive == 0.0) hAdaptive = initialStep();
+
+            if (!fsalValid) {
+                evaluateDyDt(time, state, k1);
+                fsalValid = true;
+            }
+
+            //do not step past the end, but avoid leaving a tiny final step
+            double h = hAdaptive;
+            boolean last = false;
+            if (time + 1.1 * h >= tEnd) {
+                h = tEnd - time;
+                last = true;
+            }
+
+            double err = dormandPrinceStep(h);
+
+            if (err <= 1.0) {
+
+                //accept the step; the last stage becomes the first of the next step
+                acceptedSteps++;
+                double tPrev = time;
+                for (int i = 0; i < Dim; i++) {
+                    prev[i] = state[i];
+                    state[i] = ytmp[i];
+                    kPrev[i] = k1[i];
+                    k1[i] = k7[i];
+                }
+                time = last ? tEnd : time + h;
+
+                double fac = Math.pow(err, PI_EXPO) * Math.pow(errPrev, -PI_BETA) / SAFETY;
+                fac = Math.max(1.0 / FAC_MAX, Math.min(1.0 / FAC_MIN, fac));
+                //after a rejection do not grow the step straight away
+                if (rejectedLast) fac = Math.max(fac, 1.0);
+                errPrev = Math.max(err, 1e-4);
+                rejectedLast = false;
+
+                //the shortened final step says nothing about the step size the solution wants
+                if (!last || h / fac < hAdaptive) hAdaptive = h / fac;
+
+                //listeners see the controller ready for the next step, so a checkpoint taken now resumes exactly
+                for (StepListener listener : listeners) listener.stepTaken(this, tPrev, prev, time, state);
+                if (++unpublishedSteps >= publishInterval) publish();
+
+            } else {
+
+                //reject the step and retry with a smaller one
+                rejectedSteps++;
+                rejectedLast = true;
+                hAdaptive = h / Math.min(1.0 / FAC_MIN, Math.pow(err, PI_EXPO) / SAFETY);
+            }
+        }
+    }
+
+    /**
+     * For a StepListener told of a step by advanceTo, read the stage data of the step for dense output: the
+     * derivatives at its start and end, and the fifth coefficient of the Dormand-Prince continuous extension,
+     * h times the D weighted sum of the stages. Steps taken by iterate have no such data.
+     *
+     * @param h the length of the step
+     * @return whether the data was read, false if the step was not taken by advanceTo
+     */
+    boolean readDenseOutput(double h, double[] f0, double[] f1, double[] dense){
+
+        if (!advancing) return false;
+
+        for (int i = 0; i < Dim; i++) {
+            f0[i] = kPrev[i];
+            f1[i] = k7[i];
+            dense[i] = h*(D1*kPrev[i] + D3*k3[i] + D4*k4[i] + D5*k5[i] + D6*k6[i] + D7*k7[i]);
+        }
+        return true;
+    }
+
+    /**
+     * @return whether the step the listeners are being told of was taken by advanceTo rather than iterate
+     */
+    boolean isAdvancing(){
+        return advancing;
+    }
+
+    /**
+     * Advance y from time t by h with the scheme that took the step the listeners are being told of: the fifth
+     * order Dormand-Prince solution within advanceTo, otherwise the integrator with the current substeps. Lets a
+     * StepListener carry a second trajectory along with the pendulum's own; it uses working arrays of its own, so
+     * the state of the integration is not disturbed.
+     */
+    void repeatStep(double t, double[] y, double h){
+
+        if (!advancing) {
+            double hs = h / substeps;
+            for (int k = 0; k < substeps; k++) integrator.step(this, t + k*hs, y, hs);
+            return;
+        }
+
+        if (repeatStages == null) repeatStages = new double[7][Dim];
+        double[] s1 = repeatStages[0], s2 = repeatStages[1], s3 = repeatStages[2], s4 = repeatStages[3],
+                s5 = repeatStages[4], s6 = repeatStages[5], tmp = repeatStages[6];
+
+        evaluateDyDt(t, y, s1);
+
+        for (int i = 0; i < Dim; i++) tmp[i] = y[i] + h*A21*s1[i];
+        evaluateDyDt(t + C2*h, tmp, s2);
+
+        for (int i = 0; i < Dim; i++) tmp[i] = y[i] + h*(A31*s1[i] + A32*s2[i]);
+        evaluateDyDt(t + C3*h, tmp, s3);
+
+        for (int i = 0; i < Dim; i++) tmp[i] = y[i] + h*(A41*s1[i] + A42*s2[i] + A43*s3[i]);
+        evaluateDyDt(t + C4*h, tmp, s4);
+
+        for (int i = 0; i < Dim; i++) tmp[i] = y[i] + h*(A51*s1[i] + A52*s2[i] + A53*s3[i] + A54*s4[i]);
+        evaluateDyDt(t + C5*h, tmp, s5);
+
+        for (int i = 0; i < Dim; i++) tmp[i] = y[i] + h*(A61*s1[i] + A62*s2[i] + A63*s3[i] + A64*s4[i] + A65*s5[i]);
+        evaluateDyDt(t + h, tmp, s6);
+
+        for (int i = 0; i < Dim; i++) y[i] += h*(A71*s1[i] + A73*s3[i] + A74*s4[i] + A75*s5[i] + A76*s6[i]);
+    }
+
+    /**
+     * Attempt one Dormand-Prince step of length h from the current state, using k1 as the RHS there.
+     * The fifth order solution is left in ytmp, the RHS at it in k7, and the scaled rms error is returned.
+     */
+    private double dormandPrinceStep(double h){
+
+        for (int i = 0; i < Dim; i++) ytmp[i] = state[i] + h*A21*k1[i];
+        evaluateDyDt(time + C2*h, ytmp, k2);
+
+        for (int i = 0; i < Dim; i++) ytmp[i] = state[i] + h*(A31*k1[i] + A32*k2[i]);
+        evaluateDyDt(time + C3*h, ytmp, k3);
+
+        for (int i = 0; i < Dim; i++) ytmp[i] = state[i] + h*(A41*k1[i] + A42*k2[i] + A43*k3[i]);
+        evaluateDyDt(time + C4*h, ytmp, k4);
+
+        for (int i = 0; i < Dim; i++) ytmp[i] = state[i] + h*(A51*k1[i] + A52*k2[i] + A53*k3[i] + A54*k4[i]);
+        evaluateDyDt(time + C5*h, ytmp, k5);
+
+        for (int i = 0; i < Dim; i++) ytmp[i] = state[i] + h*(A61*k1[i] + A62*k2[i] + A63*k3[i] + A64*k4[i] + A65*k5[i]);
+        evaluateDyDt(time + h, ytmp, k6);
+
+        for (int i = 0; i < Dim; i++) ytmp[i] = state[i] + h*(A71*k1[i] + A73*k3[i] + A74*k4[i] + A75*k5[i] + A76*k6[i]);
+        evaluateDyDt(time + h, ytmp, k7);
+
+        //the difference between the fifth and fourth order solutions
+        double sum = 0.0;
+        for (int i = 0; i < Dim; i++) {
+            double e = h*(E1*k1[i] + E3*k3[i] + E4*k4[i] + E5*k5[i] + E6*k6[i] + E7*k7[i]);
+            double sc = absTol + relTol*Math.max(Math.abs(state[i]), Math.abs(ytmp[i]));
+            sum += (e/sc) * (e/sc);
+        }
+        return Math.sqrt(sum/Dim);
+    }
+
+    /**
+     * Guess an initial step size for advanceTo from the size of the state and of its derivatives,
+     * following Hairer, Norsett and Wanner.
+     */
+    private double initialStep(){
+
+        evaluateDyDt(time, state, k1);
+        fsalValid = true;
+
+        double d0 = 0.0, d1 = 0.0;
+        for (int i = 0; i < Dim; i++) {
+            double sc = absTol + relTol*Math.abs(state[i]);
+            d0 += (state[i]/sc) * (state[i]/sc);
+            d1 += (k1[i]/sc) * (k1[i]/sc);
+        }
+        d0 = Math.sqrt(d0/Dim);
+        d1 = Math.sqrt(d1/Dim);
+
+        double h0 = (d0 < 1e-5 || d1 < 1e-5) ? 1e-6 : 0.01*d0/d1;
+
+        //an explicit euler step to estimate the second derivative
+        for (int i = 0; i < Dim; i++) ytmp[i] = state[i] + h0*k1[i];
+        evaluateDyDt(time + h0, ytmp, k2);
+
+        double d2 = 0.0;
+        for (int i = 0; i < Dim; i++) {
+            double sc = absTol + relTol*Math.abs(state[i]);
+            d2 += ((k2[i] - k1[i])/sc) * ((k2[i] - k1[i])/sc);
+        }
+        d2 = Math.sqrt(d2/Dim)/h0;
+
+        double h1 = Math.max(d1, d2) <= 1e-15 ? Math.max(1e-6, h0*1e-3) : Math.pow(0.01/Math.max(d1, d2), 0.2);
+
+        return Math.min(100*h0, h1);
+    }
+
+    /**
+     * @return the number of steps accepted by advanceTo so far.
+     */
+    public long getAcceptedSteps(){
+        return acceptedSteps;
+    }
+
+    /**
+     * @return the number of steps rejected by advanceTo so far.
+     */
+    public long getRejectedSteps(){
+        return rejectedSteps;
+    }
+
+    public double getMass1() {
+        return mass1;
+    }
+
+    public double getMass2() {
+        return mass2;
+    }
+
+    public double getLength1() {
+        return length1;
+    }
+
+    public double getLength2() {
+        return length2;
+    }
+
     /**
      * A method to return the furthest distance of the second bob from the origin.
      * Useful in visualisations.
@@ -284,33 +955,21 @@ public class DoublePendulum {
         int numIntegrations = 100;
         int numOutput= 30000;
 
-        BufferedWriter output = null;
+        //write the trajectory in binary, with energies; java TrajectoryExport DoublePendulum.traj DoublePendulum.out
+        //produces the old text output of time, kinetic energy, potential and total energy.
+        TrajectoryWriter output = null;
 
         try {
-            output = new BufferedWriter(new FileWriter("DoublePendulum.out"));
+            output = new TrajectoryWriter(Paths.get("DoublePendulum.traj"), dp, timestep, numIntegrations, true);
         } catch (Exception e) {
             System.err.println("Error; Could not open file");
             return;
         }
+
         for (int i = 0; i < numOutput; i++){
 
             dp.iterate(numIntegrations, timestep);
-
-            //get particle positions
-            Particle3D p1 = dp.getPendulum1();
-            Particle3D p2 = dp.getPendulum2();
-
-            //get Kinetic energy
-            double ke = p1.kineticEnergy() + p2.kineticEnergy();
-
-            //get potential energy
-            double v = DoublePendulum.GRAVITY * (p1.getMass()*p1.getPosition().getY() + p2.getMass()*p2.getPosition().getY() );
-            //System.out.println(p1.getPosition().getY() + ", " +p2.getPosition().getY() );
-
-            double tot = ke + v;
-            output.write(dp.getTime() + ", " + ke + ", " + v + ", " + tot);
-            //output.write(dp.getTime() +"\t"+ String.valueOf(p1.kineticEnergy()));
-            output.newLine();
+            output.write(dp);
 
         }
 
@@ -0,0 +1,154 @@
+/**
+ * Watches the energy of a DoublePendulum while it is being integrated, and acts when it drifts.
+ *
+ * Added to the pendulum as a StepListener, the monitor computes the total energy straight from the state every
+ * stride steps, without allocating, and compares it with the energy at its baseline. When the relative drift
+ * passes the threshold the Alert is told, and under the TIGHTEN policy the scheme that took the step is refined
+ * as well: a step of iterate has the substeps per step doubled, a step of advanceTo has its tolerances cut
+ * tenfold, each until it reaches its floor, past which rounding rather than truncation error dominates. The other
+ * scheme is left alone, so a pendulum moving between the two does not pay later for refinements it never used. The energy lost so far
+ * cannot be won back, so the baseline then moves to the current energy and the threshold applies afresh to the
+ * drift from there; getTotalDrift still measures from the start.
+ */
+public class EnergyMonitor implements StepListener {
+
+    /**
+     * What to do when the drift passes the threshold.
+     */
+    public enum Policy { ALERT, TIGHTEN }
+
+    /**
+     * Told when the drift passes the threshold, on the integrating thread.
+     */
+    public interface Alert {
+
+        /**
+         * @param system the pendulum
+         * @param t the time at which the drift was found
+         * @param drift the relative drift from the baseline
+         * @param tightened whether the step has been refined in response, false once every refinement is at its floor
+         */
+        void driftExceeded(DoublePendulum system, double t, double drift, boolean tightened);
+    }
+
+    /**
+     * Writes a warning to System.err.
+     */
+    public static final Alert WARN = new Alert() {
+        @Override
+        public void driftExceeded(DoublePendulum system, double t, double drift, boolean tightened) {
+            String now = system.isAdvancing() ? "tolerances " + system.getAbsTol() + "/" + system.getRelTol()
+                    : system.getSubsteps() + " substeps per step";
+            System.err.println("Energy drift " + drift + " at t = " + t + (tightened ? ", now " + now : ""));
+        }
+    };
+
+    //no further refinement beyond this many substeps
+    private static final int MAX_SUBSTEPS = 1 << 10;
+
+    //no tolerances tighter than these, a few ulps of an energy of order one
+    static final double MIN_ABS_TOL = 1e-15, MIN_REL_TOL = 1e-13;
+
+    private final int stride;
+    private final double threshold;
+    private final Policy policy;
+    private final Alert alert;
+
+    private final double energyStart;
+    private double energy0, energy;
+    private double drift = 0.0, maxDrift = 0.0;
+    private int steps = 0;
+    private long alerts = 0;
+
+    /**
+     * Create a monitor with its baseline at the current energy of the pendulum. It has to be added to the
+     * pendulum with addStepListener before it sees any steps.
+     *
+     * @param dp the pendulum
+     * @param stride the number of steps between checks
+     * @param threshold the largest relative drift tolerated from the baseline
+     * @param policy whether to refine the step as well as alert
+     * @param alert told of every drift past the threshold, e.g. WARN
+     */
+    public EnergyMonitor(DoublePendulum dp, int stride, double threshold, Policy policy, Alert alert) {
+
+        if (stride < 1) throw new IllegalArgumentException("Stride must be at least 1: " + stride);
+        if (!(threshold > 0.0)) throw new IllegalArgumentException("Threshold must be positive: " + threshold);
+        if (policy == null || alert == null) throw new IllegalArgumentException("Policy and alert must not be null");
+
+        this.stride = stride;
+        this.threshold = threshold;
+        this.policy = policy;
+        this.alert = alert;
+
+        energyStart = energy0 = energy = dp.getTotalEnergy();
+    }
+
+    @Override
+    public void stepTaken(DoublePendulum system, double tPrev, double[] yPrev, double t, double[] y) {
+
+        if (++steps < stride) return;
+        steps = 0;
+
+        energy = DoublePendulum.totalEnergy(y, system.getMass1(), system.getMass2(),
+                system.getLength1(), system.getLength2());
+        drift = relative(energy, energy0);
+        maxDrift = Math.max(maxDrift, Math.abs(relative(energy, energyStart)));
+
+        if (Math.abs(drift) <= threshold) return;
+
+        boolean tighten = false;
+        if (policy == Policy.TIGHTEN) {
+            if (system.isAdvancing()) {
+                //never loosen a tolerance already set below its floor
+                double absTol = system.getAbsTol(), relTol = system.getRelTol();
+                double absTighter = Math.min(absTol, Math.max(MIN_ABS_TOL, absTol / 10.0));
+                double relTighter = Math.min(relTol, Math.max(MIN_REL_TOL, relTol / 10.0));
+                if (absTighter != absTol || relTighter != relTol) {
+                    system.setTolerances(absTighter, relTighter);
+                    tighten = true;
+                }
+            } else if (system.getSubsteps() < MAX_SUBSTEPS) {
+                system.setSubsteps(2 * system.getSubsteps());
+                tighten = true;
+            }
+        }
+
+        alerts++;
+        energy0 = energy;
+        alert.driftExceeded(system, t, drift, tighten);
+    }
+
+    /**
+     * The drift of energy relative to reference, or the absolute drift if reference is zero.
+     */
+    static double relative(double energy, double reference) {
+        return (energy - reference) / (reference == 0.0 ? 1.0 : Math.abs(reference));
+    }
+
+    /**
+     * @return the relative drift from the baseline at the last check.
+     */
+    public double getDrift() {
+        return drift;
+    }
+
+    /**
+     * @return the largest relative drift from the energy at the start seen at any check.
+     */
+    public double getMaxDrift() {
+        return maxDrift;
+    }
+
+    /**
+     * @return the relative drift from the energy at the start, at the last check.
+     */
+    public double getTotalDrift() {
+        return relative(energy, energyStart);
+    }
+
+    public long getAlerts() {
+        return alerts;
+    }
+
+}
@@ -0,0 +1,14 @@
+/**
+ * A scalar function of the time and state of a DoublePendulum whose zeros mark events, such as the pendulum
+ * passing through a Poincare section.
+ */
+public interface EventFunction {
+
+    /**
+     * @param t the time
+     * @param y the state, laid out as in DoublePendulum; must not be modified
+     * @return a value that changes sign where an event occurs
+     */
+    double value(double t, double[] y);
+
+}
@@ -0,0 +1,280 @@
+/**
+ * Polynomial sine and cosine for evaluating the equations of motion quickly, over many lanes at once or one
+ * value at a time.
+ *
+ * The argument is reduced to r in [-pi/2, pi/2] with x = r + k*pi, using a three part split of pi so the
+ * reduction stays exact for |x| up to MAX_ARGUMENT, and sin(r), cos(r) are then evaluated by their Taylor
+ * series to beyond double precision. The array loops contain no branches so that the JIT can vectorise them.
+ * The scalar functions, which are not vectorised, reduce by pi/2 instead and pick the polynomial by quadrant.
+ * Arguments larger than MAX_ARGUMENT are handed to Math.sin and Math.cos instead.
+ *
+ * The absolute error against Math.sin and Math.cos is at most MAX_ERROR, a few units in the last place;
+ * the results are not correctly rounded. The right hand side of the equations of motion evaluated with them
+ * differs from the strict one by at most MAX_RHS_ERROR. Running main checks both bounds.
+ */
+public final class FastTrig {
+
+    /**
+     * The largest argument handled by the polynomial path; k*PI1 is exact for k below 2^20.
+     */
+    public static final double MAX_ARGUMENT = 1.0e6;
+
+    /**
+     * The largest absolute difference from Math.sin and Math.cos over the whole range of arguments.
+     */
+    public static final double MAX_ERROR = 1.0e-15;
+
+    /**
+     * The largest difference between the RHS of DoublePendulum in the FAST and STRICT trig modes, relative to the
+     * RHS or to 1 where that is smaller, for angles within 4 pi and angular frequencies within 20 rad/s. The
+     * addition formulae for the sine of the difference of the angles lose a few digits where the angles are
+     * close, so this is well above MAX_ERROR; about 2e-12 is seen.
+     */
+    public static final double MAX_RHS_ERROR = 1.0e-10;
+
+    //pi split into three parts, PI1 has its low bits clear
+    private static final double PI1 = 3.14159265346825122833e+00;
+    private static final double PI2 = 1.21542010126079319532e-10;
+    private static final double PI3 = 4.04453249759190126308e-21;
+    private static final double INV_PI = 1.0 / Math.PI;
+
+    //the scalar functions reduce by pi/2 instead, to r in [-pi/4, pi/4], and need half as many terms
+    private static final double PIO2_1 = 0.5 * PI1, PIO2_2 = 0.5 * PI2, PIO2_3 = 0.5 * PI3;
+    private static final double TWO_OVER_PI = 2.0 / Math.PI;
+
+    //Taylor coefficients (-1)^n/(2n+1)! and (-1)^n/(2n)!
+    private static final double S3 = -1.0 / 6.0, S5 = 1.0 / 120.0, S7 = -1.0 / 5040.0, S9 = 1.0 / 362880.0,
+            S11 = -1.0 / 39916800.0, S13 = 1.0 / 6227020800.0, S15 = -1.0 / 1307674368000.0,
+            S17 = 1.0 / 355687428096000.0, S19 = -1.0 / 121645100408832000.0, S21 = 1.0 / 51090942171709440000.0;
+    private static final double C2 = -1.0 / 2.0, C4 = 1.0 / 24.0, C6 = -1.0 / 720.0, C8 = 1.0 / 40320.0,
+            C10 = -1.0 / 3628800.0, C12 = 1.0 / 479001600.0, C14 = -1.0 / 87178291200.0,
+            C16 = 1.0 / 20922789888000.0, C18 = -1.0 / 6402373705728000.0, C20 = 1.0 / 2432902008176640000.0,
+            C22 = -1.0 / 1124000727777607680000.0;
+
+    private FastTrig() {
+    }
+
+    /**
+     * The sine of x, within MAX_ERROR of Math.sin(x).
+     */
+    public static double sin(double x) {
+
+        if (Math.abs(x) > MAX_ARGUMENT) return Math.sin(x);
+
+        double k = Math.rint(x * TWO_OVER_PI);
+        double r = ((x - k * PIO2_1) - k * PIO2_2) - k * PIO2_3;
+        int q = (int) k;
+
+        double v = (q & 1) == 0 ? sinPoly(r) : cosPoly(r);
+        return (q & 2) == 0 ? v : -v;
+    }
+
+    /**
+     * The cosine of x, within MAX_ERROR of Math.cos(x).
+     */
+    public static double cos(double x) {
+
+        if (Math.abs(x) > MAX_ARGUMENT) return Math.cos(x);
+
+        double k = Math.rint(x * TWO_OVER_PI);
+        double r = ((x - k * PIO2_1) - k * PIO2_2) - k * PIO2_3;
+        int q = (int) k;
+
+        double v = (q & 1) == 0 ? cosPoly(r) : sinPoly(r);
+        return ((q + 1) & 2) == 0 ? v : -v;
+    }
+
+    /**
+     * The sine and cosine of x into out[0] and out[1], sharing the argument reduction between them.
+     */
+    public static void sinCos(double x, double[] out) {
+
+        if (Math.abs(x) > MAX_ARGUMENT) {
+            out[0] = Math.sin(x);
+            out[1] = Math.cos(x);
+            return;
+        }
+
+        double k = Math.rint(x * TWO_OVER_PI);
+        double r = ((x - k * PIO2_1) - k * PIO2_2) - k * PIO2_3;
+        int q = (int) k;
+
+        double s = sinPoly(r), c = cosPoly(r);
+        double sin = (q & 1) == 0 ? s : c;
+        double cos = (q & 1) == 0 ? c : s;
+        out[0] = (q & 2) == 0 ? sin : -sin;
+        out[1] = ((q + 1) & 2) == 0 ? cos : -cos;
+    }
+
+    /**
+     * The Taylor series of sin(r) for |r| <= pi/4, to r^15.
+     */
+    private static double sinPoly(double r) {
+
+        double r2 = r * r;
+        double p = S15;
+        p = p * r2 + S13;
+        p = p * r2 + S11;
+        p = p * r2 + S9;
+        p = p * r2 + S7;
+        p = p * r2 + S5;
+        p = p * r2 + S3;
+        return r + r * r2 * p;
+    }
+
+    /**
+     * The Taylor series of cos(r) for |r| <= pi/4, to r^16.
+     */
+    private static double cosPoly(double r) {
+
+        double r2 = r * r;
+        double p = C16;
+        p = p * r2 + C14;
+        p = p * r2 + C12;
+        p = p * r2 + C10;
+        p = p * r2 + C8;
+        p = p * r2 + C6;
+        p = p * r2 + C4;
+        p = p * r2 + C2;
+        return 1.0 + r2 * p;
+    }
+
+    /**
+     * (-1)^k without leaving floating point.
+     */
+    private static double sign(double k) {
+        return 1.0 - 2.0 * (k - 2.0 * Math.floor(0.5 * k));
+    }
+
+    /**
+     * Fill sin[i] and cos[i] with the sine and cosine of x[i], for i in [0, len).
+     *
+     * @param x the angles
+     * @param sin destination for the sines
+     * @param cos destination for the cosines
+     * @param len the number of lanes
+     */
+    public static void sinCos(double[] x, double[] sin, double[] cos, int len) {
+
+        //large angles lose accuracy in the reduction, leave them to Math
+        double max = 0.0;
+        for (int i = 0; i < len; i++) max = Math.max(max, Math.abs(x[i]));
+        if (max > MAX_ARGUMENT) {
+            for (int i = 0; i < len; i++) {
+                sin[i] = Math.sin(x[i]);
+                cos[i] = Math.cos(x[i]);
+            }
+            return;
+        }
+
+        //sine and cosine in separate loops, the JIT will not vectorise both polynomials in one
+        for (int i = 0; i < len; i++) {
+
+            double k = Math.rint(x[i] * INV_PI);
+            double r = ((x[i] - k * PI1) - k * PI2) - k * PI3;
+            double r2 = r * r;
+
+            double sign = sign(k);
+
+            double p = S21;
+            p = p * r2 + S19;
+            p = p * r2 + S17;
+            p = p * r2 + S15;
+            p = p * r2 + S13;
+            p = p * r2 + S11;
+            p = p * r2 + S9;
+            p = p * r2 + S7;
+            p = p * r2 + S5;
+            p = p * r2 + S3;
+
+            sin[i] = sign * (r + r * r2 * p);
+        }
+
+        for (int i = 0; i < len; i++) {
+
+            double k = Math.rint(x[i] * INV_PI);
+            double r = ((x[i] - k * PI1) - k * PI2) - k * PI3;
+            double r2 = r * r;
+
+            double sign = sign(k);
+
+            double p = C22;
+            p = p * r2 + C20;
+            p = p * r2 + C18;
+            p = p * r2 + C16;
+            p = p * r2 + C14;
+            p = p * r2 + C12;
+            p = p * r2 + C10;
+            p = p * r2 + C8;
+            p = p * r2 + C6;
+            p = p * r2 + C4;
+            p = p * r2 + C2;
+
+            cos[i] = sign * (1.0 + r2 * p);
+        }
+    }
+
+    /**
+     * Check the accuracy of the polynomials against Math over random arguments, small and large, and that of the
+     * fast equations of motion against the strict ones. Exits with status 1 if MAX_ERROR or MAX_RHS_ERROR is
+     * exceeded.
+     *
+     * usage: java FastTrig [samples]
+     */
+    public static void main(String[] args) {
+
+        int samples = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+        java.util.Random random = new java.util.Random(42);
+
+        double[] x = new double[4096], sin = new double[x.length], cos = new double[x.length], sc = new double[2];
+        double maxScalar = 0.0, maxArray = 0.0;
+
+        for (int done = 0; done < samples; done += x.length) {
+
+            //alternate between the angles met in practice and the whole range
+            double range = (done / x.length) % 2 == 0 ? 4.0 * Math.PI : MAX_ARGUMENT;
+            for (int i = 0; i < x.length; i++) x[i] = (2.0 * random.nextDouble() - 1.0) * range;
+
+            sinCos(x, sin, cos, x.length);
+
+            for (int i = 0; i < x.length; i++) {
+                double ms = Math.sin(x[i]), mc = Math.cos(x[i]);
+                sinCos(x[i], sc);
+                maxScalar = Math.max(maxScalar, Math.max(Math.abs(sin(x[i]) - ms), Math.abs(cos(x[i]) - mc)));
+                maxScalar = Math.max(maxScalar, Math.max(Math.abs(sc[0] - ms), Math.abs(sc[1] - mc)));
+                maxArray = Math.max(maxArray, Math.max(Math.abs(sin[i] - ms), Math.abs(cos[i] - mc)));
+            }
+        }
+
+        //the right hand side of the equations of motion, strict against fast
+        DoublePendulum strict = DoublePendulum.fromAngles(1.0, 1.0, 1.0, 1.0, 0.0, 0.0, 0.0, 0.0);
+        DoublePendulum fast = DoublePendulum.fromAngles(1.0, 1.0, 1.0, 1.0, 0.0, 0.0, 0.0, 0.0);
+        fast.setTrigMode(DoublePendulum.TrigMode.FAST);
+        double[] y = new double[4], a = new double[4], b = new double[4];
+        double maxRhs = 0.0;
+        for (int n = 0; n < 1000000; n++) {
+            y[0] = (2.0 * random.nextDouble() - 1.0) * 4.0 * Math.PI;
+            y[1] = (2.0 * random.nextDouble() - 1.0) * 4.0 * Math.PI;
+            y[2] = (2.0 * random.nextDouble() - 1.0) * 20.0;
+            y[3] = (2.0 * random.nextDouble() - 1.0) * 20.0;
+            strict.evaluateDyDt(0.0, y, a);
+            fast.evaluateDyDt(0.0, y, b);
+            for (int i = 0; i < 4; i++) maxRhs = Math.max(maxRhs, Math.abs(a[i] - b[i]) / Math.max(1.0, Math.abs(a[i])));
+        }
+
+        System.out.println("max error, scalar: " + maxScalar);
+        System.out.println("max error, arrays: " + maxArray);
+        System.out.println("max relative difference of the RHS: " + maxRhs);
+
+        if (maxScalar > MAX_ERROR || maxArray > MAX_ERROR) {
+            System.out.println("FAILED: error above " + MAX_ERROR);
+            System.exit(1);
+        }
+        if (!(maxRhs <= MAX_RHS_ERROR)) {
+            System.out.println("FAILED: RHS difference above " + MAX_RHS_ERROR);
+            System.exit(1);
+        }
+        System.out.println("OK");
+    }
+
+}
@@ -0,0 +1,222 @@
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The "time until first flip" map of the double pendulum.
+ *
+ * Every cell of a width x height grid is a pendulum released from rest with theta1 and theta2 spread evenly over
+ * (-pi, pi), theta1 along the rows and theta2 down the columns. Each one is integrated until either arm passes
+ * over the top (an angle leaves [-pi, pi]) or until tMax, and the time of the flip is recorded, NaN standing for
+ * no flip. Pendulums without the energy to raise either arm over the top are not integrated at all.
+ *
+ * The rows are split recursively over a ForkJoin pool, so idle workers steal the rows left by the slow ones.
+ *
+ * usage: java FlipMap width height tMax h output [mass1 mass2 length1 length2]
+ * writes output.flt, the map as floats, and output.png.
+ */
+public class FlipMap {
+
+    private final int width, height;
+    private final double mass1, mass2, length1, length2;
+    private final double h, tMax;
+
+    /**
+     * The flip times, row by row.
+     */
+    private final float[] times;
+
+    public FlipMap(int width, int height, double mass1, double mass2, double length1, double length2,
+                   double h, double tMax) {
+
+        if (width < 1 || height < 1) throw new IllegalArgumentException("Grid must be at least 1x1");
+        if (!(h > 0.0) || !(tMax > 0.0)) throw new IllegalArgumentException("h and tMax must be positive");
+
+        this.width = width;
+        this.height = height;
+        this.mass1 = mass1;
+        this.mass2 = mass2;
+        this.length1 = length1;
+        this.length2 = length2;
+        this.h = h;
+        this.tMax = tMax;
+        times = new float[width * height];
+    }
+
+    /**
+     * The initial angle of grid index i of n, at the centre of its cell.
+     */
+    static double angle(int i, int n) {
+        return -Math.PI + (i + 0.5) * 2.0 * Math.PI / n;
+    }
+
+    /**
+     * Integrate every cell on the given pool.
+     */
+    public void compute(ForkJoinPool pool) {
+        pool.invoke(new Rows(0, height));
+    }
+
+    /**
+     * A range of rows, split in half until a single row is left.
+     */
+    private class Rows extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int from, to;
+
+        Rows(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new Rows(from, mid), new Rows(mid, to));
+                return;
+            }
+
+            double theta2 = angle(from, height);
+            for (int col = 0; col < width; col++) {
+                times[from * width + col] = (float) flipTime(mass1, mass2, length1, length2,
+                        angle(col, width), theta2, h, tMax);
+            }
+        }
+    }
+
+    /**
+     * The time at which a pendulum released from rest at (theta1, theta2) first flips either arm over the top,
+     * or NaN if it does not within tMax.
+     */
+    static double flipTime(double mass1, double mass2, double length1, double length2,
+                           double theta1, double theta2, double h, double tMax) {
+
+        //the least potential energy with either arm pointing straight up
+        double g = DoublePendulum.GRAVITY;
+        double flip1 = g * ((mass1 + mass2) * length1 - mass2 * length2);
+        double flip2 = g * (mass2 * length2 - (mass1 + mass2) * length1);
+        double energy = -g * ((mass1 + mass2) * length1 * Math.cos(theta1) + mass2 * length2 * Math.cos(theta2));
+        if (energy < Math.min(flip1, flip2)) return Double.NaN;
+
+        DoublePendulum dp = DoublePendulum.fromAngles(mass1, mass2, length1, length2, theta1, theta2, 0.0, 0.0);
+        Integrator integrator = dp.getIntegrator();
+
+        //step the state directly so that every step can be checked
+        double[] y = new double[4];
+        dp.readState(y);
+
+        long steps = (long) Math.ceil(tMax / h);
+        for (long step = 1; step <= steps; step++) {
+            integrator.step(dp, (step - 1) * h, y, h);
+            if (Math.abs(y[0]) > Math.PI || Math.abs(y[1]) > Math.PI) return step * h;
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * Set the flip times of the rows from fromRow on, given row by row, as computed elsewhere.
+     */
+    void setRows(int fromRow, float[] rows) {
+        System.arraycopy(rows, 0, times, fromRow * width, rows.length);
+    }
+
+    /**
+     * @return the flip time of cell (col, row), or NaN.
+     */
+    public float getTime(int col, int row) {
+        return times[row * width + col];
+    }
+
+    /**
+     * Write the map as little endian ints width and height followed by the flip times, row by row, as floats.
+     */
+    public void writeMatrix(Path path) throws IOException {
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(8 + 4 * times.length).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(width).putInt(height);
+        buffer.asFloatBuffer().put(times);
+        buffer.clear();
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) channel.write(buffer);
+        }
+    }
+
+    /**
+     * Write the map as a png, shading each flip time on a log scale from white (immediate) through to a deep
+     * blue (tMax). Cells that never flip are black.
+     */
+    public void writeImage(Path path) throws IOException {
+
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+
+        double logMin = Math.log(h), logMax = Math.log(tMax);
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                float t = times[row * width + col];
+                int rgb = 0;
+                if (!Float.isNaN(t)) {
+                    double s = (Math.log(t) - logMin) / (logMax - logMin);
+                    s = Math.max(0.0, Math.min(1.0, s));
+                    int r = (int) (255 * (1.0 - s));
+                    int gr = (int) (255 * (1.0 - s) * (1.0 - s));
+                    int b = (int) (255 * (1.0 - 0.6 * s));
+                    rgb = (r << 16) | (gr << 8) | b;
+                }
+                //theta2 increases up the image
+                image.setRGB(col, height - 1 - row, rgb);
+            }
+        }
+
+        ImageIO.write(image, "png", path.toFile());
+    }
+
+    public static void main(String[] args) throws IOException {
+
+        int width, height;
+        double tMax, h;
+        String output;
+        double mass1 = 1.0, mass2 = 1.0, length1 = 1.0, length2 = 1.0;
+
+        try {
+            width = Integer.parseInt(args[0]);
+            height = Integer.parseInt(args[1]);
+            tMax = Double.parseDouble(args[2]);
+            h = Double.parseDouble(args[3]);
+            output = args[4];
+            if (args.length >= 9) {
+                mass1 = Double.parseDouble(args[5]);
+                mass2 = Double.parseDouble(args[6]);
+                length1 = Double.parseDouble(args[7]);
+                length2 = Double.parseDouble(args[8]);
+            }
+        } catch (Exception e) {
+            System.err.println("usage: java FlipMap width height tMax h output [mass1 mass2 length1 length2]");
+            System.exit(1);
+            return;
+        }
+
+        FlipMap map = new FlipMap(width, height, mass1, mass2, length1, length2, h, tMax);
+
+        long start = System.nanoTime();
+        map.compute(ForkJoinPool.commonPool());
+        System.out.printf("%dx%d map in %.1fs%n", width, height, (System.nanoTime() - start) / 1e9);
+
+        map.writeMatrix(Paths.get(output + ".flt"));
+        map.writeImage(Paths.get(output + ".png"));
+    }
+
+}
@@ -0,0 +1,42 @@
+/**
+ * Cubic Hermite interpolation of a state within a step, from the states and their derivatives at either end.
+ *
+ * The interpolant matches the values and slopes at both ends, so its error is O(h^4) in the step length,
+ * in keeping with the 4th order integrators, and it needs no evaluations of the equations of motion beyond
+ * the derivatives at the two ends.
+ */
+final class Hermite {
+
+    private Hermite() {
+    }
+
+    /**
+     * Interpolate the state at time t, between t0 and t1, into out.
+     *
+     * @param t0 the time at the start of the step
+     * @param y0 the state at t0
+     * @param f0 its derivative at t0
+     * @param t1 the time at the end of the step
+     * @param y1 the state at t1
+     * @param f1 its derivative at t1
+     * @param t the time to interpolate to
+     * @param out filled with the interpolated state, as many components as it has
+     */
+    static void interpolate(double t0, double[] y0, double[] f0, double t1, double[] y1, double[] f1,
+                            double t, double[] out) {
+
+        double h = t1 - t0;
+        double s = (t - t0) / h;
+        double s2 = s * s, s3 = s2 * s;
+
+        double h00 = 2.0 * s3 - 3.0 * s2 + 1.0;
+        double h10 = (s3 - 2.0 * s2 + s) * h;
+        double h01 = 3.0 * s2 - 2.0 * s3;
+        double h11 = (s3 - s2) * h;
+
+        for (int i = 0; i < out.length; i++) {
+            out[i] = h00 * y0[i] + h10 * f0[i] + h01 * y1[i] + h11 * f1[i];
+        }
+    }
+
+}
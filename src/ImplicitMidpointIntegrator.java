@@ -0,0 +1,116 @@
+/**
+ * The implicit midpoint rule, a symplectic 2nd order method.
+ *
+ * The rule is only symplectic in canonical coordinates, so each step is taken on the angles and their conjugate
+ * momenta p = M(theta) omega, where M is the mass matrix of the double pendulum. The canonical vector field is
+ * built from DoublePendulum.evaluateDyDt: dtheta/dt = omega and dp/dt = M domega/dt + (dM/dt) omega.
+ * The implicit equation for the midpoint is solved by fixed point iteration, which converges for any
+ * timestep small enough to resolve the motion.
+ *
+ * Being symplectic and symmetric, the energy error stays bounded over long runs instead of drifting.
+ */
+public class ImplicitMidpointIntegrator implements Integrator {
+
+    //convergence criterion and iteration limit of the fixed point iteration
+    private static final double TOLERANCE = 1e-14;
+    private static final int MAX_ITERATIONS = 50;
+
+    /**
+     * Canonical coordinates (theta1, theta2, p1, p2) at the start of the step and at the midpoint,
+     * the previous midpoint iterate, the canonical vector field, and a working state in the pendulum's own
+     * coordinates with its RHS.
+     */
+    private final double[] z0 = new double[4];
+    private final double[] zmid = new double[4];
+    private final double[] zlast = new double[4];
+    private final double[] field = new double[4];
+    private final double[] ywork = new double[4];
+    private final double[] dydt = new double[4];
+
+    //terms of the mass matrix [[a, b cos(theta1-theta2)], [b cos(theta1-theta2), c]]
+    private double a, b, c;
+
+    @Override
+    public void step(DoublePendulum system, double t, double[] y, double h) {
+
+        double m1 = system.getMass1(), m2 = system.getMass2();
+        double l1 = system.getLength1(), l2 = system.getLength2();
+        a = (m1 + m2) * l1 * l1;
+        b = m2 * l1 * l2;
+        c = m2 * l2 * l2;
+
+        final double HALF = 0.5 * h;
+        final double tmid = t + HALF;
+
+        toCanonical(y, z0);
+
+        //start from an explicit euler half step
+        canonicalField(system, tmid, z0);
+        for (int i = 0; i < 4; i++) zmid[i] = z0[i] + HALF * field[i];
+
+        //solve zmid = z0 + h/2 F(zmid)
+        for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+
+            for (int i = 0; i < 4; i++) zlast[i] = zmid[i];
+
+            canonicalField(system, tmid, zmid);
+
+            double change = 0.0;
+            for (int i = 0; i < 4; i++) {
+                zmid[i] = z0[i] + HALF * field[i];
+                change = Math.max(change, Math.abs(zmid[i] - zlast[i]) / (1.0 + Math.abs(zmid[i])));
+            }
+            if (change <= TOLERANCE) break;
+        }
+
+        //the end of the step is the reflection of the start in the midpoint
+        for (int i = 0; i < 4; i++) zmid[i] = 2.0 * zmid[i] - z0[i];
+        fromCanonical(zmid, y);
+    }
+
+    /**
+     * Load field with the canonical vector field (dtheta/dt, dp/dt) at z.
+     */
+    private void canonicalField(DoublePendulum system, double t, double[] z) {
+
+        double[] y = ywork;
+        fromCanonical(z, y);
+        system.evaluateDyDt(t, y, dydt);
+
+        double d = y[0] - y[1];
+        double bc = b * Math.cos(d);
+        //time derivative of the off diagonal term of the mass matrix
+        double dbc = -b * Math.sin(d) * (y[2] - y[3]);
+
+        field[0] = y[2];
+        field[1] = y[3];
+        field[2] = a * dydt[2] + bc * dydt[3] + dbc * y[3];
+        field[3] = bc * dydt[2] + c * dydt[3] + dbc * y[2];
+    }
+
+    /**
+     * Convert a state (theta, omega) to canonical coordinates (theta, p).
+     */
+    private void toCanonical(double[] y, double[] z) {
+
+        double bc = b * Math.cos(y[0] - y[1]);
+        z[0] = y[0];
+        z[1] = y[1];
+        z[2] = a * y[2] + bc * y[3];
+        z[3] = bc * y[2] + c * y[3];
+    }
+
+    /**
+     * Convert canonical coordinates (theta, p) back to a state (theta, omega) by inverting the mass matrix.
+     */
+    private void fromCanonical(double[] z, double[] y) {
+
+        double bc = b * Math.cos(z[0] - z[1]);
+        double det = a * c - bc * bc;
+        y[0] = z[0];
+        y[1] = z[1];
+        y[2] = (c * z[2] - bc * z[3]) / det;
+        y[3] = (a * z[3] - bc * z[2]) / det;
+    }
+
+}
@@ -0,0 +1,559 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The initial conditions of many double pendulums, loaded in bulk into one primitive array per column.
+ *
+ * Every row is the mass, position and velocity of the two bobs in the plane, in the order of the COLUMNS
+ * constants: m1, x1, y1, vx1, vy1, m2, x2, y2, vx2, vy2, with p2's position and velocity absolute as for the
+ * DoublePendulum constructor.
+ *
+ * readCsv takes a text file of one row per line, the values separated by commas and/or blanks. Blank lines and
+ * lines starting with # are skipped, as is a first line starting with a letter, taken to be a header. The file is
+ * memory mapped and cut at line ends into chunks that are handled in parallel on a ForkJoin pool: the rows of
+ * every chunk are counted, a prefix sum gives the row each chunk starts at, and the chunks are then parsed
+ * straight into the columns. Numbers are parsed from the bytes without making strings; the few a double
+ * cannot be computed from exactly (more than 15 significant digits, large exponents, NaN and so on) fall back to
+ * Double.parseDouble.
+ *
+ * The binary format written by writeBinary is a header of HEADER_SIZE bytes, all values little endian:
+ * <pre>
+ *   int    magic (MAGIC)
+ *   int    version (VERSION)
+ *   long   number of rows
+ * </pre>
+ * followed by the columns one after the other, each as rows doubles. readBinary maps the columns and copies them
+ * into the arrays in parallel, so nothing is parsed at all.
+ *
+ * usage: java InitialConditions input.csv|input.dpic [output.dpic]
+ * loads the input, reporting the time taken, and writes it in the binary format if an output is given.
+ */
+public class InitialConditions {
+
+    public static final int MAGIC = 0x44504943; //"DPIC"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 16;
+
+    public static final int M1 = 0, X1 = 1, Y1 = 2, VX1 = 3, VY1 = 4, M2 = 5, X2 = 6, Y2 = 7, VX2 = 8, VY2 = 9;
+    public static final int COLUMNS = 10;
+
+    //bounds on the size of the chunks a csv file is cut into, and the largest region of a column mapped at once
+    private static final long MIN_CHUNK = 1 << 20, MAX_CHUNK = 1 << 26;
+    private static final long MAX_REGION = 1L << 27;
+
+    //powers of ten represented exactly as doubles, for the fast path of the parser
+    private static final double[] POW10 = new double[23];
+
+    static {
+        POW10[0] = 1.0;
+        for (int i = 1; i < POW10.length; i++) POW10[i] = POW10[i - 1] * 10.0;
+    }
+
+    private final int rows;
+    private final double[][] columns;
+
+    /**
+     * Create rows rows of initial conditions, all zero.
+     */
+    public InitialConditions(int rows) {
+
+        if (rows < 0) throw new IllegalArgumentException("Number of rows must not be negative: " + rows);
+
+        this.rows = rows;
+        columns = new double[COLUMNS][rows];
+    }
+
+    public int size() {
+        return rows;
+    }
+
+    /**
+     * @return the value of column (one of the COLUMNS constants) in row i
+     */
+    public double get(int column, int i) {
+        return columns[column][i];
+    }
+
+    public void set(int column, int i, double value) {
+        columns[column][i] = value;
+    }
+
+    /**
+     * Set member i of the ensemble from row i, for every row, in parallel.
+     */
+    public void fill(EnsembleDoublePendulum ensemble) {
+
+        if (ensemble.size() < rows) throw new IllegalArgumentException("Ensemble has fewer members than rows");
+        ForkJoinPool.commonPool().invoke(new Fill(ensemble, 0, rows));
+    }
+
+    /**
+     * @return a new ensemble with a member for every row
+     */
+    public EnsembleDoublePendulum toEnsemble() {
+
+        EnsembleDoublePendulum ensemble = new EnsembleDoublePendulum(rows);
+        fill(ensemble);
+        return ensemble;
+    }
+
+    /**
+     * A range of rows, split in half until at most GRAIN are left.
+     */
+    private class Fill extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final int GRAIN = 1 << 14;
+
+        private final EnsembleDoublePendulum ensemble;
+        private final int from, to;
+
+        Fill(EnsembleDoublePendulum ensemble, int from, int to) {
+            this.ensemble = ensemble;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+
+            if (to - from > GRAIN) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new Fill(ensemble, from, mid), new Fill(ensemble, mid, to));
+                return;
+            }
+
+            double[][] c = columns;
+            for (int i = from; i < to; i++) {
+                ensemble.setMember(i, c[M1][i], c[X1][i], c[Y1][i], c[VX1][i], c[VY1][i],
+                        c[M2][i], c[X2][i], c[Y2][i], c[VX2][i], c[VY2][i]);
+            }
+        }
+    }
+
+    /**
+     * Read a file in either format, telling them apart by the magic number.
+     */
+    public static InitialConditions read(Path path) throws IOException {
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            while (magic.hasRemaining() && channel.read(magic) >= 0) ;
+            if (magic.position() == 4 && magic.getInt(0) == MAGIC) return readBinary(path);
+        }
+        return readCsv(path);
+    }
+
+    /**
+     * A piece of a csv file, starting at the beginning of a line and ending just after a line end or at the end
+     * of the file.
+     */
+    private static final class Chunk {
+
+        final long start, end;
+
+        //filled in by the counting pass, then the first row and line number of the chunk from the prefix sum
+        int rows, lines;
+        int firstRow, firstLine;
+
+        Chunk(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    /**
+     * Read a csv file of initial conditions, one row per line.
+     *
+     * @throws IOException naming the line of the first value that cannot be read
+     */
+    public static InitialConditions readCsv(Path path) throws IOException {
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+
+            final List<Chunk> chunks = split(channel);
+
+            ForkJoinPool pool = ForkJoinPool.commonPool();
+            pool.invoke(new CsvPass(channel, chunks, 0, chunks.size(), null));
+
+            //turn the counts into the first row and line of every chunk
+            long rows = 0;
+            int lines = 1;
+            for (Chunk chunk : chunks) {
+                chunk.firstRow = (int) rows;
+                chunk.firstLine = lines;
+                rows += chunk.rows;
+                lines += chunk.lines;
+            }
+            if (rows > Integer.MAX_VALUE) throw new IOException(path + " has too many rows: " + rows);
+
+            InitialConditions ic = new InitialConditions((int) rows);
+            pool.invoke(new CsvPass(channel, chunks, 0, chunks.size(), ic));
+            return ic;
+        } catch (UncheckedIOException e) {
+            throw new IOException(path + ", " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * Cut the file into chunks that end at line ends, about four for every thread of the common pool.
+     */
+    private static List<Chunk> split(FileChannel channel) throws IOException {
+
+        long size = channel.size();
+        long target = size / (4L * ForkJoinPool.getCommonPoolParallelism());
+        target = Math.max(MIN_CHUNK, Math.min(MAX_CHUNK, target));
+
+        List<Chunk> chunks = new ArrayList<Chunk>();
+        ByteBuffer scan = ByteBuffer.allocate(4096);
+
+        long start = 0;
+        while (start < size) {
+
+            //move the end of the chunk on to just after the next line end
+            long end = Math.min(size, start + target);
+            search:
+            while (end < size) {
+                scan.clear();
+                int n = channel.read(scan, end);
+                if (n <= 0) break;
+                for (int i = 0; i < n; i++) {
+                    if (scan.get(i) == '\n') {
+                        end += i + 1;
+                        break search;
+                    }
+                }
+                end += n;
+            }
+
+            chunks.add(new Chunk(start, end));
+            start = end;
+        }
+        return chunks;
+    }
+
+    /**
+     * Counts the rows of a range of chunks when ic is null, otherwise parses them into ic.
+     */
+    private static final class CsvPass extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel channel;
+        private final List<Chunk> chunks;
+        private final int from, to;
+        private final InitialConditions ic;
+
+        CsvPass(FileChannel channel, List<Chunk> chunks, int from, int to, InitialConditions ic) {
+            this.channel = channel;
+            this.chunks = chunks;
+            this.from = from;
+            this.to = to;
+            this.ic = ic;
+        }
+
+        @Override
+        protected void compute() {
+
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new CsvPass(channel, chunks, from, mid, ic), new CsvPass(channel, chunks, mid, to, ic));
+                return;
+            }
+            if (to == from) return;
+
+            Chunk chunk = chunks.get(from);
+            try {
+                MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, chunk.start, chunk.end - chunk.start);
+                new CsvParser(bytes, chunk, ic).run();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Reads the lines of one chunk, counting them or parsing them into the columns.
+     */
+    private static final class CsvParser {
+
+        private final ByteBuffer bytes;
+        private final int limit;
+        private final Chunk chunk;
+        private final double[][] columns;
+
+        private int pos = 0;
+        private int line;
+
+        CsvParser(ByteBuffer bytes, Chunk chunk, InitialConditions ic) {
+            this.bytes = bytes;
+            this.limit = bytes.limit();
+            this.chunk = chunk;
+            this.columns = ic == null ? null : ic.columns;
+            line = chunk.firstLine;
+        }
+
+        void run() throws IOException {
+
+            int row = chunk.firstRow;
+            int lines = 0, rows = 0;
+
+            while (pos < limit) {
+
+                int lineStart = pos;
+                skipBlanks();
+
+                boolean data = true;
+                if (pos == limit || isLineEnd(bytes.get(pos)) || bytes.get(pos) == '#') {
+                    data = false;
+                } else if (chunk.start == 0 && lineStart == 0 && Character.isLetter(bytes.get(pos))) {
+                    data = false;
+                }
+
+                if (data && columns != null) {
+                    for (int c = 0; c < COLUMNS; c++) {
+                        if (c > 0) separator();
+                        columns[c][row] = number();
+                    }
+                    skipBlanks();
+                    if (pos < limit && !isLineEnd(bytes.get(pos))) throw error("expected " + COLUMNS + " values");
+                    row++;
+                }
+                if (data) rows++;
+
+                //on to the start of the next line
+                while (pos < limit && bytes.get(pos) != '\n') pos++;
+                if (pos < limit) pos++;
+                lines++;
+                line++;
+            }
+
+            if (columns == null) {
+                chunk.rows = rows;
+                chunk.lines = lines;
+            }
+        }
+
+        private static boolean isLineEnd(byte b) {
+            return b == '\n' || b == '\r';
+        }
+
+        private void skipBlanks() {
+            while (pos < limit && (bytes.get(pos) == ' ' || bytes.get(pos) == '\t')) pos++;
+        }
+
+        /**
+         * Skip a comma and/or blanks between two values.
+         */
+        private void separator() throws IOException {
+
+            int start = pos;
+            skipBlanks();
+            if (pos < limit && bytes.get(pos) == ',') {
+                pos++;
+                skipBlanks();
+            }
+            if (pos == start || pos == limit || isLineEnd(bytes.get(pos))) throw error("expected " + COLUMNS + " values");
+        }
+
+        /**
+         * Parse the number at pos, leaving pos just after it.
+         */
+        private double number() throws IOException {
+
+            int start = pos;
+            boolean negative = false;
+            if (pos < limit && (bytes.get(pos) == '-' || bytes.get(pos) == '+')) negative = bytes.get(pos++) == '-';
+
+            //the significant digits as an integer and the power of ten to scale them by
+            long mantissa = 0;
+            int digits = 0, exponent = 0;
+            boolean any = false, exact = true;
+
+            byte b;
+            while (pos < limit && (b = bytes.get(pos)) >= '0' && b <= '9') {
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + (b - '0');
+                    if (mantissa != 0) digits++;
+                } else {
+                    exponent++;
+                    exact &= b == '0';
+                }
+                any = true;
+                pos++;
+            }
+            if (pos < limit && bytes.get(pos) == '.') {
+                pos++;
+                while (pos < limit && (b = bytes.get(pos)) >= '0' && b <= '9') {
+                    if (digits < 18) {
+                        mantissa = mantissa * 10 + (b - '0');
+                        if (mantissa != 0) digits++;
+                        exponent--;
+                    } else {
+                        exact &= b == '0';
+                    }
+                    any = true;
+                    pos++;
+                }
+            }
+            if (any && pos < limit && ((b = bytes.get(pos)) == 'e' || b == 'E')) {
+                pos++;
+                boolean negativeExponent = false;
+                if (pos < limit && (bytes.get(pos) == '-' || bytes.get(pos) == '+')) {
+                    negativeExponent = bytes.get(pos++) == '-';
+                }
+                int e = 0;
+                boolean anyExponent = false;
+                while (pos < limit && (b = bytes.get(pos)) >= '0' && b <= '9') {
+                    if (e < 100000) e = e * 10 + (b - '0');
+                    anyExponent = true;
+                    pos++;
+                }
+                if (!anyExponent) any = false;
+                exponent += negativeExponent ? -e : e;
+            }
+
+            //anything else up to the end of the value, such as NaN, is left to Double.parseDouble
+            boolean other = false;
+            while (pos < limit && (b = bytes.get(pos)) != ',' && b != ' ' && b != '\t' && !isLineEnd(b)) {
+                other = true;
+                pos++;
+            }
+
+            //exact when the digits and the power of ten are both exact doubles, as in Clinger's fast path
+            if (any && !other && exact && mantissa < (1L << 53) && exponent >= -22 && exponent <= 22) {
+                double value = exponent < 0 ? mantissa / POW10[-exponent] : mantissa * POW10[exponent];
+                return negative ? -value : value;
+            }
+
+            byte[] text = new byte[pos - start];
+            for (int i = 0; i < text.length; i++) text[i] = bytes.get(start + i);
+            String s = new String(text, StandardCharsets.US_ASCII);
+            try {
+                return Double.parseDouble(s);
+            } catch (NumberFormatException e) {
+                throw error("invalid number '" + s + "'");
+            }
+        }
+
+        private IOException error(String message) {
+            return new IOException("line " + line + ": " + message);
+        }
+    }
+
+    /**
+     * Read a file written by writeBinary.
+     */
+    public static InitialConditions readBinary(Path path) throws IOException {
+
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining() && channel.read(header) >= 0) ;
+            header.flip();
+            if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC) {
+                throw new IOException(path + " is not an initial conditions file");
+            }
+            int version = header.getInt();
+            if (version != VERSION) throw new IOException("Unsupported initial conditions version " + version);
+            long rows = header.getLong();
+            if (rows < 0 || rows > Integer.MAX_VALUE || channel.size() < HEADER_SIZE + 8L * COLUMNS * rows) {
+                throw new IOException(path + " is truncated or corrupt");
+            }
+
+            final InitialConditions ic = new InitialConditions((int) rows);
+
+            //copy every column in regions, all in parallel
+            List<RecursiveAction> copies = new ArrayList<RecursiveAction>();
+            for (int c = 0; c < COLUMNS; c++) {
+                for (long first = 0; first < rows; first += MAX_REGION) {
+                    final int column = c, from = (int) first, count = (int) Math.min(MAX_REGION, rows - first);
+                    final long offset = HEADER_SIZE + 8L * (c * rows + first);
+                    copies.add(new RecursiveAction() {
+                        @Override
+                        protected void compute() {
+                            try {
+                                MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, offset, 8L * count);
+                                region.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().get(ic.columns[column], from, count);
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                        }
+                    });
+                }
+            }
+            ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(copies);
+                }
+            });
+            return ic;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Write the initial conditions in the binary format, read back by readBinary.
+     */
+    public void writeBinary(Path path) throws IOException {
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(rows);
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+
+            for (double[] column : columns) {
+                for (int i = 0; i < rows; ) {
+                    int n = Math.min(rows - i, buffer.remaining() / 8);
+                    buffer.asDoubleBuffer().put(column, i, n);
+                    buffer.position(buffer.position() + 8 * n);
+                    i += n;
+                    if (buffer.remaining() < 8) {
+                        buffer.flip();
+                        while (buffer.hasRemaining()) channel.write(buffer);
+                        buffer.clear();
+                    }
+                }
+            }
+
+            buffer.flip();
+            while (buffer.hasRemaining()) channel.write(buffer);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+
+        if (args.length < 1) {
+            System.err.println("usage: java InitialConditions input.csv|input.dpic [output.dpic]");
+            System.exit(1);
+        }
+
+        long start = System.nanoTime();
+        InitialConditions ic = read(Paths.get(args[0]));
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d rows in %.3fs (%.1f million rows/s)%n", ic.size(), seconds, ic.size() / seconds / 1e6);
+
+        start = System.nanoTime();
+        EnsembleDoublePendulum ensemble = ic.toEnsemble();
+        System.out.printf("ensemble of %d in %.3fs%n", ensemble.size(), (System.nanoTime() - start) / 1e9);
+
+        if (args.length > 1) ic.writeBinary(Paths.get(args[1]));
+    }
+
+}
@@ -0,0 +1,20 @@
+/**
+ * A scheme for advancing the state of a DoublePendulum by a single time step.
+ *
+ * The state is the 4 dimensional array used internally by DoublePendulum (the two angles followed by the two
+ * angular frequencies) and the right hand side is DoublePendulum.evaluateDyDt. Implementations may keep
+ * working arrays between steps, so an instance should only be used by one pendulum at a time.
+ */
+public interface Integrator {
+
+    /**
+     * Advance the state y of the system from time t to t + h, in place.
+     *
+     * @param system the pendulum whose equations of motion are integrated
+     * @param t the time at the start of the step
+     * @param y the state at time t, overwritten with the state at time t + h
+     * @param h the timestep
+     */
+    void step(DoublePendulum system, double t, double[] y, double h);
+
+}
@@ -4,11 +4,22 @@ import java.awt.*;
 
 public class InteractiveDP extends JFrame{
 
+    private static final long serialVersionUID = 1L;
+
     //current simulation state
     private DoublePendulum dp = null;
 
-    //background thread to run simulation in
-    private Thread dpBackground;
+    //drives the simulation in the background, created on the first start and reused by every start after it
+    private RealTimeDriver driver;
+
+    //whether a simulation has been started and not yet reported stopped; only used on the swing thread
+    private boolean running = false;
+
+    //whether a stop has been asked for and not yet reported, and whether start was pressed in the meantime
+    private boolean stopping = false, startPending = false;
+
+    //simulated time advanced by each tick of the driver
+    private static final double TICK = 1e-3;
 
     //a copy of the state of the system to prevent concurrency issues
     private Particle3D[] state = new Particle3D[2];
@@ -16,6 +27,9 @@ public class InteractiveDP extends JFrame{
     //default timestep value
     private double timestep = 1.5e-7;
 
+    //simulated seconds per second of wall clock time
+    private double timeScale = 1.0;
+
     //user Objects to interact with
     private InteractiveDPViewer viewer = new InteractiveDPViewer(this);
     private InteractiveDPControlPanel controls = new InteractiveDPControlPanel(this);
@@ -37,12 +51,17 @@ public class InteractiveDP extends JFrame{
         state[1] = new Particle3D(1.0,  new Vector3D(0.0, -0.4, 0.0), new Vector3D(4.0, 0.0, 0.0), null);
 
         //layout viewer and controller
+        viewer.setPreferredSize(new Dimension(600, 600));
         getContentPane().add(viewer, BorderLayout.CENTER);
         getContentPane().add(controls, BorderLayout.SOUTH);
 
-
-        //create the controller object on the swing thread using invokelater
-        //
+        //repaint at about the display's refresh rate, reading the latest snapshot each time
+        new Timer(16, new java.awt.event.ActionListener() {
+            @Override
+            public void actionPerformed(java.awt.event.ActionEvent e) {
+                if (running) viewer.repaint();
+            }
+        }).start();
     }
 
     /**
@@ -52,7 +71,7 @@ public class InteractiveDP extends JFrame{
      */
     //sets the mass of a particular particle and ensures that the background thread is not running
     public void setMass(int particle, double mass){
-        if (dpBackground != null) return;
+        if (running) return;
 
         if (particle > 0 && particle < state.length && mass > 0.0) {
             state[particle].setMass(mass);
@@ -60,7 +79,7 @@ public class InteractiveDP extends JFrame{
     }
 
     public void setPosition(int particle, Vector3D position){
-        if (dpBackground != null) return;
+        if (running) return;
 
         if (particle > 0 && particle < state.length && position != null) {
             state[particle].setPosition(position);
@@ -69,7 +88,7 @@ public class InteractiveDP extends JFrame{
     }
 
     public void setVelocity(int particle, Vector3D velocity){
-        if (dpBackground != null) return;
+        if (running) return;
 
         if (particle > 0 && particle < state.length && velocity != null) {
             state[particle].setVelocity(velocity);
@@ -79,25 +98,25 @@ public class InteractiveDP extends JFrame{
     }
 
     public void setTimestep(double step){
-        if (dpBackground != null) return;
+        if (running) return;
 
         timestep = step;
     }
 
     /**
      * obtain the current state of the simulation.
-     * this is thread state so that the state returned is consistent.
+     * this reads the latest snapshot published by the simulation, so the state returned is consistent
+     * and the simulation is never blocked.
      *
      * @return masses, positions and velocities of the two bobs as a Particle3D array
      */
     public Particle3D[] getDpState() {
 
-        if (dpBackground != null) {
+        if (running) {
 
-            synchronized (dp) {
-                state[0] = dp.getPendulum1();
-                state[1] = dp.getPendulum2();
-            }
+            DPSnapshot snapshot = dp.getSnapshot();
+            state[0] = snapshot.getPendulum1();
+            state[1] = snapshot.getPendulum2();
         }
         return state;
     }
@@ -107,77 +126,96 @@ public class InteractiveDP extends JFrame{
     }
 
     /**
-     * Start a simulation running in the background.
-     * If a simulation is already running this method does nothing.
+     * Set how fast the simulation runs, in simulated seconds per second: 1 for real time, N for N times as fast.
+     */
+    public void setTimeScale(double timeScale){
+        if (driver != null) driver.setTimeScale(timeScale);
+        this.timeScale = timeScale;
+    }
+
+    /**
+     * Start a simulation running in the background, paced to the wall clock.
+     * If a simulation is paused it is resumed, and if it is already running this method does nothing. If it is
+     * stopping, the new simulation starts from its final state once the stop has been reported.
      */
 
     public void startSimulation(){
-        //do nothing if the the simulation is already running
-        if (dpBackground != null) return;
+        //the driver is stopped but its final state has not arrived yet, start once it has
+        if (stopping) {
+            startPending = true;
+            return;
+        }
 
-        //set up new simulation iwith specified initial conditions
+        //carry on with a paused simulation rather than starting a new one
+        if (running) {
+            driver.resume();
+            return;
+        }
 
+        //set up new simulation with specified initial conditions
         dp = new DoublePendulum(state[0], state[1]);
 
-        //  run the simulation in a background thread
-        dpBackground = new Thread() {
-            @Override
-            public void run(){
-                //iterate the equations of motion until the thread is stopped.
-
-                //communicate with the swing thread
-                javax.swing.SwingUtilities.invokeLater( new Runnable() {
-                    @Override
-                    void run() {
-                        // Insert code to run on Swing thread here
-                        // Inform the viewer that the simulation has started
-                    }
-                } );
-
-                //iterate the EoM's until thread is interrupted
-                while (!isInterrupted()){
-                    dp.iterate((int) 1e4, 1.5e-7);
-                }
-
-                // Below code deals with ending of the simulation and doesn't called until the
-                // iteration and therefore the simulation has stopped.
-
-
-                //update the local copy of the system from that of the DoublePendulum object
-                getDpState();
-
-                //communicate with the swing thread
-                javax.swing.SwingUtilities.invokeLater( new Runnable() {
-                    @Override
-                    void run() {
-                        // remove reference to the background thread
-                        dpBackground = null;
-
-                        //inform view objects that the simulation has finshed
-                    }
-                } );
-
-            }
-        };
-
-        dpBackground.start();
+        //as many steps of the timestep as make up a tick
+        int stepsPerTick = Math.max(1, (int) Math.round(TICK / timestep));
 
+        if (driver == null) {
+            driver = new RealTimeDriver(dp, timestep, stepsPerTick);
+        } else {
+            driver.load(dp);
+            driver.setStep(timestep, stepsPerTick);
+        }
+        driver.setTimeScale(timeScale);
 
+        running = true;
+        driver.start();
+    }
 
+    /**
+     * Hold the simulation where it is, without using any CPU, until it is started again.
+     */
+    public void pauseSimulation(){
+        if (running && !stopping) driver.pause();
     }
 
     /**
-     * A corresponding stop simulation method.
+     * A corresponding stop simulation method. The simulation stops at the end of its current tick, and its final
+     * state becomes the local copy of the system, from which the next simulation starts.
      * Again we do nothing if the simulation is already stopped.
      */
 
     public void stopSimulation(){
-        if (dpBackground == null) return;
-        //otherwise we now stop the thread
-        dpBackground.interrupt();
-    }
-
+        if (!running || stopping) return;
 
+        stopping = true;
+        driver.stop(new RealTimeDriver.StopListener() {
+            @Override
+            public void stopped(DPSnapshot last) {
+                //update the local copy of the system from the final state of the simulation
+                state[0] = last.getPendulum1();
+                state[1] = last.getPendulum2();
+                running = false;
+                stopping = false;
+
+                //inform view objects that the simulation has finished
+                viewer.repaint();
+
+                if (startPending) {
+                    startPending = false;
+                    startSimulation();
+                }
+            }
+        });
+    }
 
+    public static void main(String[] args) {
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                InteractiveDP frame = new InteractiveDP();
+                frame.pack();
+                frame.setVisible(true);
+            }
+        });
+    }
 
 }
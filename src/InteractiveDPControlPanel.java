@@ -0,0 +1,61 @@
+import javax.swing.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
+/**
+ * The buttons under the Interactive Double Pendulum: start, pause and stop the simulation and choose how fast it
+ * runs. Every action is passed straight to the InteractiveDP, on the swing thread.
+ */
+public class InteractiveDPControlPanel extends JPanel {
+
+    private static final long serialVersionUID = 1L;
+
+    //simulated seconds per second of wall clock time offered
+    private static final Double[] TIME_SCALES = {0.1, 0.5, 1.0, 2.0, 5.0, 10.0};
+
+    /**
+     * @param controller the window whose simulation the buttons control
+     */
+    public InteractiveDPControlPanel(final InteractiveDP controller) {
+
+        JButton start = new JButton("Start");
+        start.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                controller.startSimulation();
+            }
+        });
+
+        JButton pause = new JButton("Pause");
+        pause.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                controller.pauseSimulation();
+            }
+        });
+
+        JButton stop = new JButton("Stop");
+        stop.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                controller.stopSimulation();
+            }
+        });
+
+        final JComboBox<Double> timeScale = new JComboBox<Double>(TIME_SCALES);
+        timeScale.setSelectedItem(1.0);
+        timeScale.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                controller.setTimeScale((Double) timeScale.getSelectedItem());
+            }
+        });
+
+        add(start);
+        add(pause);
+        add(stop);
+        add(new JLabel("Time scale"));
+        add(timeScale);
+    }
+
+}
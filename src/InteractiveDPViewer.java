@@ -4,6 +4,8 @@ import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 
 public class InteractiveDPViewer extends JComponent{
+
+    private static final long serialVersionUID = 1L;
     //a value that determines the size of the bobs in the visualisation.
     private int BOB_RADIUS = 10;
 
@@ -18,9 +20,11 @@ public class InteractiveDPViewer extends JComponent{
     private InteractiveDP controller;
 
     /**
-     * Field for the double pendulum that we wish to visualise.
+     * @param controller the window whose simulation is drawn
      */
-    private DoublePendulum dp;
+    public InteractiveDPViewer(InteractiveDP controller) {
+        this.controller = controller;
+    }
 
 
     /**
@@ -173,13 +177,15 @@ public class InteractiveDPViewer extends JComponent{
         double Ox = (double) width/2.0;
         double Oy = (double) height/2.0;
 
-        //set up the scale factors Sx, Sy
-        double Sy = (double) -height/(2*dp.getMaxLength());
-        double Sx = -Sy;
-
-        //get the real world positions and notify waiting threads that the positions have been obtained.
+        //get the real world positions, from the running simulation or the initial conditions being edited
         Particle3D[] state = controller.getDpState();
 
+        //set up the scale factors Sx, Sy from the length of the pendulum fully extended
+        Vector3D p1 = state[0].getPosition(), p2 = state[1].getPosition();
+        double maxLength = Math.hypot(p1.getX(), p1.getY()) + Math.hypot(p2.getX() - p1.getX(), p2.getY() - p1.getY());
+        double Sy = (double) -height/(2*maxLength);
+        double Sx = -Sy;
+
 
 
         //draw the string connecting the first mass to the origin, and then to the second mass
@@ -0,0 +1,120 @@
+/**
+ * Estimates the maximal Lyapunov exponent of a DoublePendulum while it is being integrated.
+ *
+ * Added to the pendulum as a StepListener, the estimator carries a second, shadow, trajectory a distance d0 away
+ * from the pendulum's own and advances it by every step the pendulum takes, with the scheme that took it (the
+ * integrator in iterate, Dormand-Prince in advanceTo). Every renormInterval steps the separation d of the two is
+ * measured, ln(d/d0) is added to a running sum and the shadow is pulled back along the separation to distance d0
+ * (Benettin's method). The sum divided by the elapsed time converges
+ * to the maximal exponent. Distances are measured in the state space (theta1, theta2, omega1, omega2).
+ */
+public class LyapunovEstimator implements StepListener {
+
+    private final double d0;
+    private final int renormInterval;
+
+    //the shadow trajectory
+    private final double[] shadow = new double[4];
+
+    private final double startTime;
+    private double lastRenormTime;
+    private double logSum = 0.0;
+    private long renormalizations = 0;
+    private int steps = 0;
+
+    /**
+     * Create an estimator for the pendulum starting from its current state. It has to be added to the pendulum
+     * with addStepListener before it sees any steps.
+     *
+     * @param dp the pendulum
+     * @param d0 the separation of the shadow trajectory, small enough for the separation to grow linearly
+     *           between renormalizations, e.g. 1e-8
+     * @param renormInterval the number of steps between renormalizations
+     */
+    public LyapunovEstimator(DoublePendulum dp, double d0, int renormInterval) {
+
+        if (!(d0 > 0.0)) throw new IllegalArgumentException("Separation must be positive: " + d0);
+        if (renormInterval < 1) throw new IllegalArgumentException("Renormalization interval must be at least 1");
+
+        this.d0 = d0;
+        this.renormInterval = renormInterval;
+
+        //displace the shadow equally along every direction
+        dp.readState(shadow);
+        for (int i = 0; i < 4; i++) shadow[i] += 0.5 * d0;
+
+        startTime = lastRenormTime = dp.getTime();
+    }
+
+    @Override
+    public void stepTaken(DoublePendulum system, double tPrev, double[] yPrev, double t, double[] y) {
+
+        //the same step, with the same scheme, for the shadow: fixed step or Dormand-Prince as the pendulum took it
+        system.repeatStep(tPrev, shadow, t - tPrev);
+
+        if (++steps < renormInterval) return;
+        steps = 0;
+
+        double d = 0.0;
+        for (int i = 0; i < 4; i++) d += (shadow[i] - y[i]) * (shadow[i] - y[i]);
+        d = Math.sqrt(d);
+
+        logSum += Math.log(d / d0);
+        renormalizations++;
+        lastRenormTime = t;
+
+        for (int i = 0; i < 4; i++) shadow[i] = y[i] + (shadow[i] - y[i]) * (d0 / d);
+    }
+
+    /**
+     * @return the running estimate of the maximal Lyapunov exponent, in inverse seconds, or NaN before the
+     * first renormalization.
+     */
+    public double getEstimate() {
+        return renormalizations == 0 ? Double.NaN : logSum / (lastRenormTime - startTime);
+    }
+
+    public long getRenormalizations() {
+        return renormalizations;
+    }
+
+    /**
+     * Print a running estimate of the exponent every simulated second, for the initial conditions taken by Main.
+     *
+     * usage: java LyapunovEstimator [p1y p2y p2vx [seconds h]]
+     */
+    public static void main(String[] args) {
+
+        double p1y = -0.2, p2y = -0.4, p2vx = 4.0;
+        int seconds = 100;
+        double h = 1e-4;
+
+        try {
+            if (args.length >= 3) {
+                p1y = Double.valueOf(args[0]);
+                p2y = Double.valueOf(args[1]);
+                p2vx = Double.valueOf(args[2]);
+            }
+            if (args.length >= 5) {
+                seconds = Integer.valueOf(args[3]);
+                h = Double.valueOf(args[4]);
+            }
+        } catch (Exception ignore) {
+            System.out.println("Invalid command line arguments; Proceeding with default values.");
+        }
+
+        DoublePendulum dp = new DoublePendulum(
+                new Particle3D(1.0, new Vector3D(0.0, p1y, 0.0), new Vector3D(0.0, 0.0, 0.0), null),
+                new Particle3D(1.0, new Vector3D(0.0, p2y, 0.0), new Vector3D(p2vx, 0.0, 0.0), null));
+
+        LyapunovEstimator estimator = new LyapunovEstimator(dp, 1e-8, 10);
+        dp.addStepListener(estimator);
+
+        int stepsPerSecond = (int) Math.round(1.0 / h);
+        for (int s = 0; s < seconds; s++) {
+            dp.iterate(stepsPerSecond, h);
+            System.out.println(dp.getTime() + ", " + estimator.getEstimate());
+        }
+    }
+
+}
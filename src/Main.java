@@ -36,8 +36,17 @@ public class Main {
         );
 
 
-        //create the double pendulum viewer
-        DPViewer dpView = new DPViewer(dp);
+        //run the simulation in real time on its own thread, advancing it by 1ms of simulated time per tick
+        //with the adaptive integrator
+        dp.setTolerances(1e-10, 1e-10);
+        RealTimeDriver driver = new RealTimeDriver(dp, 1e-3);
+
+        //expose the simulation metrics over JMX, with the energy drift of this pendulum
+        SimulationMetrics.register();
+        SimulationMetrics.METRICS.watch(dp);
+
+        //create the double pendulum viewer, which repaints itself from the driver
+        DPViewer dpView = new DPViewer(driver);
 
         //set up the frame to be opened on the screen
         JFrame.setDefaultLookAndFeelDecorated(true);
@@ -52,23 +61,7 @@ public class Main {
         frame.pack();
         frame.setVisible(true);
 
-        for (;;){
-            dp.iterate((int) 1e4, 1.5e-7);
-            //update visualisation
-            dpView.repaint();
-            //synchronising repaint requests and responses
-            //pause the simulation until the current system is drawn to the canvas
-            synchronized (dp){
-                try {
-                    dp.wait();
-                } catch (Exception ignore){
-                }
-
-
-
-            }
-        }
-
+        driver.start();
 
     }
 
@@ -0,0 +1,396 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * An ensemble of independent double pendulums held outside the java heap, for ensembles too big for
+ * EnsembleDoublePendulum.
+ *
+ * Every member takes MEMBER_BYTES bytes: its state, laid out as DoublePendulum.state, and its masses and lengths.
+ * The parameters of the equations of motion are worked out from the masses and lengths as each block is loaded
+ * rather than stored. The members are kept in chunks of CHUNK members, each a direct ByteBuffer (or a region of a
+ * memory mapped file) holding one column after another, so a chunk is in the same structure-of-arrays form as
+ * EnsembleDoublePendulum and the blocks are integrated with its RK4 kernel. The heap only holds the chunk
+ * buffers and one set of working arrays per thread, so its size and the garbage collector's work do not depend on
+ * the size of the ensemble.
+ *
+ * iterate splits the blocks over the common ForkJoin pool. Direct buffers count against the JVM's direct memory
+ * limit, which defaults to the maximum heap size and is raised with -XX:MaxDirectMemorySize. A file backed
+ * ensemble has no such limit, is paged in and out by the operating system, and can be reopened with open.
+ *
+ * usage: java OffHeapEnsemble members steps h [file]
+ */
+public class OffHeapEnsemble implements Closeable {
+
+    //the columns of a chunk
+    static final int THETA1 = 0, THETA2 = 1, OMEGA1 = 2, OMEGA2 = 3, MASS1 = 4, MASS2 = 5, LENGTH1 = 6, LENGTH2 = 7;
+    static final int COLUMNS = 8;
+
+    public static final int MEMBER_BYTES = 8 * COLUMNS;
+
+    /**
+     * The number of members in a chunk, a multiple of EnsembleDoublePendulum.BLOCK.
+     */
+    static final int CHUNK = 1 << 20;
+
+    /**
+     * Blocks integrated by one task.
+     */
+    private static final int TASK_BLOCKS = 16;
+
+    /**
+     * The file format: a header of HEADER_SIZE bytes, all values little endian, followed by the chunks in order.
+     * <pre>
+     *   int    magic (MAGIC)
+     *   int    version (VERSION)
+     *   long   number of members
+     *   double time
+     * </pre>
+     * The chunks are little endian doubles too, whether in a file or in direct memory.
+     */
+    public static final int MAGIC = 0x44504F48; //"DPOH"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 32;
+
+    private final long size;
+
+    //the chunk buffers and a view of every column of each
+    private final ByteBuffer[] chunks;
+    private final DoubleBuffer[][] columns;
+
+    //the file header of a file backed ensemble, otherwise null
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+
+    private double time;
+    private volatile boolean exactTrig = false;
+
+    //working arrays for the block integrator, one set per thread
+    private static final ThreadLocal<EnsembleDoublePendulum.Lanes> LANES = new ThreadLocal<EnsembleDoublePendulum.Lanes>() {
+        @Override
+        protected EnsembleDoublePendulum.Lanes initialValue() {
+            return new EnsembleDoublePendulum.Lanes();
+        }
+    };
+
+    /**
+     * Create an ensemble of the given size in direct memory. Every member must be set with setMember before
+     * iterating.
+     */
+    public OffHeapEnsemble(long size) {
+        this(size, allocate(size), null, null, 0.0);
+    }
+
+    private OffHeapEnsemble(long size, ByteBuffer[] chunks, FileChannel channel, MappedByteBuffer header, double time) {
+
+        this.size = size;
+        this.chunks = chunks;
+        this.channel = channel;
+        this.header = header;
+        this.time = time;
+
+        columns = new DoubleBuffer[chunks.length][COLUMNS];
+        for (int k = 0; k < chunks.length; k++) {
+            int members = chunkMembers(size, k);
+            for (int c = 0; c < COLUMNS; c++) {
+                ByteBuffer b = chunks[k].duplicate();
+                b.position(c * members * 8).limit((c + 1) * members * 8);
+                columns[k][c] = b.slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+            }
+        }
+    }
+
+    private static int chunkCount(long size) {
+
+        if (size < 0) throw new IllegalArgumentException("Ensemble size must not be negative: " + size);
+        long count = (size + CHUNK - 1) / CHUNK;
+        if (count > Integer.MAX_VALUE) throw new IllegalArgumentException("Ensemble too large: " + size);
+        return (int) count;
+    }
+
+    private static int chunkMembers(long size, int k) {
+        return (int) Math.min(CHUNK, size - (long) k * CHUNK);
+    }
+
+    private static ByteBuffer[] allocate(long size) {
+
+        ByteBuffer[] chunks = new ByteBuffer[chunkCount(size)];
+        for (int k = 0; k < chunks.length; k++) {
+            chunks[k] = ByteBuffer.allocateDirect(chunkMembers(size, k) * MEMBER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return chunks;
+    }
+
+    /**
+     * Create a file backed ensemble of the given size, replacing any existing file. Every member must be set with
+     * setMember before iterating.
+     */
+    public static OffHeapEnsemble create(Path path, long size) throws IOException {
+
+        chunkCount(size);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(0, MAGIC).putInt(4, VERSION).putLong(8, size).putDouble(16, 0.0);
+            return new OffHeapEnsemble(size, map(channel, size), channel, header, 0.0);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reopen a file backed ensemble, as it was last flushed.
+     */
+    public static OffHeapEnsemble open(Path path) throws IOException {
+
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (channel.size() < HEADER_SIZE) throw new IOException(path + " is too short to be an ensemble");
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+
+            if (header.getInt(0) != MAGIC) throw new IOException(path + " is not an ensemble");
+            int version = header.getInt(4);
+            if (version != VERSION) throw new IOException("Unsupported ensemble version " + version);
+            long size = header.getLong(8);
+            if (size < 0 || channel.size() < HEADER_SIZE + size * MEMBER_BYTES) {
+                throw new IOException(path + " is truncated or corrupt");
+            }
+
+            return new OffHeapEnsemble(size, map(channel, size), channel, header, header.getDouble(16));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static ByteBuffer[] map(FileChannel channel, long size) throws IOException {
+
+        ByteBuffer[] chunks = new ByteBuffer[chunkCount(size)];
+        for (int k = 0; k < chunks.length; k++) {
+            chunks[k] = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE + (long) k * CHUNK * MEMBER_BYTES,
+                    (long) chunkMembers(size, k) * MEMBER_BYTES);
+        }
+        return chunks;
+    }
+
+    /**
+     * Set the initial conditions of member i from the cartesian positions and velocities of the two bobs, as
+     * EnsembleDoublePendulum.setMember.
+     */
+    public void setMember(long i, double m1, double x1, double y1, double vx1, double vy1,
+                          double m2, double x2, double y2, double vx2, double vy2) {
+
+        //position and velocity of p2 relative to p1
+        double x12 = x2 - x1, y12 = y2 - y1;
+        double vx12 = vx2 - vx1, vy12 = vy2 - vy1;
+
+        //squares of the lengths
+        double l1 = x1 * x1 + y1 * y1;
+        double l2 = x12 * x12 + y12 * y12;
+
+        //angular velocities (r cross v dot k) over l squared
+        setMember(i, m1, m2, Math.sqrt(l1), Math.sqrt(l2), Math.atan2(x1, -y1), Math.atan2(x12, -y12),
+                (x1 * vy1 - y1 * vx1) / l1, (x12 * vy12 - y12 * vx12) / l2);
+    }
+
+    /**
+     * Set the initial conditions of member i from its angles and angular velocities, as DoublePendulum.fromAngles.
+     */
+    public void setMember(long i, double m1, double m2, double l1, double l2,
+                          double theta1, double theta2, double omega1, double omega2) {
+
+        DoubleBuffer[] c = columns[chunk(i)];
+        int j = (int) (i % CHUNK);
+        c[THETA1].put(j, theta1);
+        c[THETA2].put(j, theta2);
+        c[OMEGA1].put(j, omega1);
+        c[OMEGA2].put(j, omega2);
+        c[MASS1].put(j, m1);
+        c[MASS2].put(j, m2);
+        c[LENGTH1].put(j, l1);
+        c[LENGTH2].put(j, l2);
+    }
+
+    private int chunk(long i) {
+
+        if (i < 0 || i >= size) throw new IndexOutOfBoundsException("Member " + i + " of " + size);
+        return (int) (i / CHUNK);
+    }
+
+    /**
+     * Advance every member of the ensemble by n steps of length h using the 4th order Runge-Kutta algorithm, in
+     * parallel on the common ForkJoin pool.
+     */
+    public synchronized void iterate(int n, double h) {
+
+        long blocks = (size + EnsembleDoublePendulum.BLOCK - 1) / EnsembleDoublePendulum.BLOCK;
+        ForkJoinPool.commonPool().invoke(new Blocks(0, blocks, n, h, exactTrig));
+        time += n * h;
+    }
+
+    /**
+     * A range of blocks, split in half until at most TASK_BLOCKS are left. Chunks hold a whole number of blocks,
+     * so a block never spans two chunks.
+     */
+    private class Blocks extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long from, to;
+        private final int n;
+        private final double h;
+        private final boolean exactTrig;
+
+        Blocks(long from, long to, int n, double h, boolean exactTrig) {
+            this.from = from;
+            this.to = to;
+            this.n = n;
+            this.h = h;
+            this.exactTrig = exactTrig;
+        }
+
+        @Override
+        protected void compute() {
+
+            if (to - from > TASK_BLOCKS) {
+                long mid = (from + to) >>> 1;
+                invokeAll(new Blocks(from, mid, n, h, exactTrig), new Blocks(mid, to, n, h, exactTrig));
+                return;
+            }
+
+            EnsembleDoublePendulum.Lanes lanes = LANES.get();
+            for (long block = from; block < to; block++) {
+                long first = block * EnsembleDoublePendulum.BLOCK;
+                DoubleBuffer[] c = columns[(int) (first / CHUNK)];
+                int j = (int) (first % CHUNK);
+                int len = (int) Math.min(EnsembleDoublePendulum.BLOCK, size - first);
+
+                lanes.load(c, j, len);
+                EnsembleDoublePendulum.rk4(lanes, len, n, h, exactTrig);
+                lanes.store(c, j, len);
+            }
+        }
+    }
+
+    /**
+     * Choose between FastTrig (FAST, the default) and Math (STRICT), as for EnsembleDoublePendulum.
+     */
+    public synchronized void setTrigMode(DoublePendulum.TrigMode mode) {
+
+        if (mode == null) throw new IllegalArgumentException("Trig mode must not be null");
+        exactTrig = mode == DoublePendulum.TrigMode.STRICT;
+    }
+
+    /**
+     * Write the time to the header of a file backed ensemble and force the file to the storage device. Does
+     * nothing for an ensemble in direct memory.
+     */
+    public synchronized void flush() {
+
+        if (header == null) return;
+        for (ByteBuffer chunk : chunks) ((MappedByteBuffer) chunk).force();
+        header.putDouble(16, time);
+        header.force();
+    }
+
+    /**
+     * Flush a file backed ensemble and close its file. The mappings stay valid until they are garbage collected.
+     */
+    @Override
+    public void close() throws IOException {
+
+        if (channel == null) return;
+        flush();
+        channel.close();
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /**
+     * return the time elapsed since the start of the simulation.
+     */
+    public synchronized double getTime() {
+        return time;
+    }
+
+    public double getTheta1(long i) {
+        return columns[chunk(i)][THETA1].get((int) (i % CHUNK));
+    }
+
+    public double getTheta2(long i) {
+        return columns[chunk(i)][THETA2].get((int) (i % CHUNK));
+    }
+
+    public double getOmega1(long i) {
+        return columns[chunk(i)][OMEGA1].get((int) (i % CHUNK));
+    }
+
+    public double getOmega2(long i) {
+        return columns[chunk(i)][OMEGA2].get((int) (i % CHUNK));
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) count += gc.getCollectionCount();
+        return count;
+    }
+
+    public static void main(String[] args) throws IOException {
+
+        long members;
+        int steps;
+        double h;
+        try {
+            members = Long.parseLong(args[0]);
+            steps = Integer.parseInt(args[1]);
+            h = Double.parseDouble(args[2]);
+        } catch (Exception e) {
+            System.err.println("usage: java OffHeapEnsemble members steps h [file]");
+            System.exit(1);
+            return;
+        }
+
+        OffHeapEnsemble ensemble = args.length > 3 ? create(Paths.get(args[3]), members) : new OffHeapEnsemble(members);
+
+        //a fan of nearby initial conditions, released from rest
+        for (long i = 0; i < members; i++) {
+            double d = (double) i / Math.max(1, members - 1);
+            ensemble.setMember(i, 1.0, 1.0, 1.0, 1.0, 2.0 + 1e-3 * d, 2.5, 0.0, 0.0);
+        }
+
+        Runtime runtime = Runtime.getRuntime();
+        long gcs = gcCount();
+        long start = System.nanoTime();
+        for (int step = 0; step < steps; step += 100) {
+            ensemble.iterate(Math.min(100, steps - step), h);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("%d members, %d steps in %.2fs, %.1f ns per member step%n", members, steps, seconds,
+                seconds * 1e9 / members / steps);
+        System.out.printf("%.0f MB off heap, %.1f MB of heap in use, %d collections%n",
+                members * (double) MEMBER_BYTES / (1 << 20),
+                (runtime.totalMemory() - runtime.freeMemory()) / (double) (1 << 20), gcCount() - gcs);
+        System.out.printf("member 0: theta1 %.6f theta2 %.6f%n", ensemble.getTheta1(0), ensemble.getTheta2(0));
+
+        ensemble.close();
+    }
+
+}
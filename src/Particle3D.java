@@ -23,12 +23,13 @@ public class Particle3D {
     //setters and getters
 
     /**Get the position of a particle 
-     *@return a vector that represents the position
+     *@return a vector that represents the position, the particle's own rather than a copy, so it changes as the
+     *leap methods move the particle
      */
 
     public Vector3D getPosition(){return position;}
     /**Get the velocity 
-     *@return a vector that gives the 3D velocity
+     *@return a vector that gives the 3D velocity, the particle's own rather than a copy like getPosition
      */
     public Vector3D getVelocity(){return velocity;}
     /**Get the masss
@@ -40,13 +41,13 @@ public class Particle3D {
      */
     public String getLabel(){return label;}
     /**Set the position of a particle
-     *@param p is a vector that describe sthe position of the particle
+     *@param p is a vector that describe sthe position of the particle, copied so the leap methods never change it
      */
-    public void setPosition(Vector3D p) {this.position=p;}
+    public void setPosition(Vector3D p) {this.position.set(p);}
     /**Set the velocity of the particle
-     *@param v is a vector describing the velocity of the particle
+     *@param v is a vector describing the velocity of the particle, copied like the position
      */
-    public void setVelocity(Vector3D v) {this.velocity=v;}
+    public void setVelocity(Vector3D v) {this.velocity.set(v);}
     /**Set the mass of the particle 
      *@param m is a double representing the mass of the particle
      */
@@ -118,18 +119,21 @@ public class Particle3D {
     /**Find the kinetic energy of Particle3D (1/2m*v^2)
      *@return a double that gives the value of the kinetic energy
      */
-    public double kineticEnergy() { return 0.5 * mass * Vector3D.dotVector3D(velocity, velocity);}
+    public double kineticEnergy() { return 0.5 * mass * velocity.magSquared();}
     /**Time integration: evolve the velocity according to 
      *dv=f/m*dt
+     *the leap methods update the position and velocity vectors in place rather than replacing them, so a
+     *leapfrog loop allocates nothing
      *@param dt is the infinitesimal time step
      *@param force is a vector that describes the current force on the particle
      */
     public void leapVelocity(double dt, Vector3D force) {
-	velocity =Vector3D.addVector3D( velocity, Vector3D.multVector3D(force,dt/mass));
+	velocity.scaleAdd(dt/mass, force);
     }
 
     public void leapVelocity(double dt,Vector3D force1, Vector3D force2){
-	velocity = Vector3D.addVector3D( velocity, Vector3D.multVector3D(Vector3D.addVector3D(force1,force2),dt/(2*mass)));
+	double c = dt/(2*mass);
+	velocity.scaleAdd(c, force1).scaleAdd(c, force2);
     }
 
     /**Time integration to evolve the position
@@ -139,19 +143,11 @@ public class Particle3D {
      */
     
     public void leapPosition(double dt, Vector3D force) {
-	 //Double c= 1/(2*mass)*dt*dt;
-
-	 //define each individual term in the above equation
-	 Vector3D cForce = Vector3D.multVector3D(force,dt*dt*(1/(2*mass)));
-	 Vector3D vdt= Vector3D.multVector3D(velocity,dt);
-	 Vector3D sum = Vector3D.addVector3D(vdt, cForce);
-
-	 //final form of the above equation to be evauluated
-	position=Vector3D.addVector3D( position,sum);
+	position.scaleAdd(dt, velocity).scaleAdd(dt*dt*(1/(2*mass)), force);
        }
 
     public void leapPosition(double dt){
-    	position = Vector3D.addVector3D( position, Vector3D.multVector3D(velocity,dt));
+    	position.scaleAdd(dt, velocity);
      }
      
     /** a method to evaluate the relative separation 
@@ -165,6 +161,16 @@ public class Particle3D {
 
         return Vector3D.subVector3D(B.getVelocity(), A.getVelocity());
     }
+
+    /** the same, written into out rather than a new vector
+     */
+    public static Vector3D relativePosition(Particle3D A, Particle3D B, Vector3D out){
+        return Vector3D.subVector3D(B.getPosition(), A.getPosition(), out);
+    }
+
+    public static Vector3D relativeVelocity(Particle3D A, Particle3D B, Vector3D out){
+        return Vector3D.subVector3D(B.getVelocity(), A.getVelocity(), out);
+    }
     
 
 
@@ -0,0 +1,179 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+
+/**
+ * Picks out the points where a DoublePendulum crosses a Poincare section while it is being integrated.
+ *
+ * Added to the pendulum as a StepListener, the section evaluates an event function at the end of every step and
+ * watches for a change of sign in the chosen direction. Only then are the derivatives at the two ends of the step
+ * evaluated, the state within the step interpolated by a cubic Hermite polynomial, and the time of the zero found
+ * on it by the Illinois method. The crossing time and state are handed to a CrossingListener, so a run of any
+ * length produces output in proportion to the number of crossings and not the number of steps.
+ *
+ * The angles of the pendulum are not wrapped, so a section such as theta1 = 0 only sees the crossings of that
+ * angle itself and not those of theta1 = 2pi.
+ */
+public class PoincareSection implements StepListener {
+
+    /**
+     * The direction of the sign changes that count as crossings.
+     */
+    public enum Direction { RISING, FALLING, BOTH }
+
+    /**
+     * Receives each crossing. The state array is only valid for the duration of the call.
+     */
+    public interface CrossingListener {
+        void crossing(double t, double[] y);
+    }
+
+    //the bracket on the crossing time is narrowed to this fraction of the step
+    private static final double TOLERANCE = 1e-13;
+    private static final int MAX_ITERATIONS = 100;
+
+    private final EventFunction event;
+    private final Direction direction;
+    private final CrossingListener listener;
+
+    //the derivatives at the ends of the step and the interpolated state
+    private final double[] fPrev = new double[4], f = new double[4], crossing = new double[4];
+
+    //the event function at the end of the last step
+    private double tLast = Double.NaN, gLast;
+
+    private long crossings = 0;
+
+    /**
+     * @param event the function whose zeros make up the section
+     * @param direction which sign changes to take
+     * @param listener receives the crossings
+     */
+    public PoincareSection(EventFunction event, Direction direction, CrossingListener listener) {
+
+        if (event == null || direction == null || listener == null) {
+            throw new IllegalArgumentException("Event, direction and listener must not be null");
+        }
+
+        this.event = event;
+        this.direction = direction;
+        this.listener = listener;
+    }
+
+    /**
+     * Write the crossings to a trajectory file. An IOException from the writer is rethrown as an
+     * UncheckedIOException out of the integration.
+     */
+    public PoincareSection(EventFunction event, Direction direction, final TrajectoryWriter writer) {
+
+        this(event, direction, new CrossingListener() {
+            @Override
+            public void crossing(double t, double[] y) {
+                try {
+                    writer.write(t, y);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void stepTaken(DoublePendulum system, double tPrev, double[] yPrev, double t, double[] y) {
+
+        double ga = tPrev == tLast ? gLast : event.value(tPrev, yPrev);
+        double gb = event.value(t, y);
+        tLast = t;
+        gLast = gb;
+
+        boolean rising = ga < 0.0 && gb >= 0.0, falling = ga > 0.0 && gb <= 0.0;
+        if (!(rising && direction != Direction.FALLING) && !(falling && direction != Direction.RISING)) return;
+
+        crossings++;
+
+        if (gb == 0.0) {
+            listener.crossing(t, y);
+            return;
+        }
+
+        system.evaluateDyDt(tPrev, yPrev, fPrev);
+        system.evaluateDyDt(t, y, f);
+
+        //Illinois: regula falsi, halving the function value at an end that is kept twice running
+        double a = tPrev, b = t, root = t;
+        int kept = 0;
+        double tolerance = TOLERANCE * (t - tPrev);
+        for (int i = 0; i < MAX_ITERATIONS && b - a > tolerance; i++) {
+
+            root = (a * gb - b * ga) / (gb - ga);
+            Hermite.interpolate(tPrev, yPrev, fPrev, t, y, f, root, crossing);
+            double gc = event.value(root, crossing);
+
+            if (gc == 0.0) break;
+            if ((gc > 0.0) == (gb > 0.0)) {
+                b = root;
+                gb = gc;
+                if (kept == -1) ga *= 0.5;
+                kept = -1;
+            } else {
+                a = root;
+                ga = gc;
+                if (kept == 1) gb *= 0.5;
+                kept = 1;
+            }
+        }
+
+        Hermite.interpolate(tPrev, yPrev, fPrev, t, y, f, root, crossing);
+        listener.crossing(root, crossing);
+    }
+
+    /**
+     * @return the number of crossings found so far.
+     */
+    public long getCrossings() {
+        return crossings;
+    }
+
+    /**
+     * Write the section theta1 = 0, omega1 > 0 of a long run to a trajectory file.
+     *
+     * usage: java PoincareSection output [seconds [h]]
+     */
+    public static void main(String[] args) throws IOException {
+
+        if (args.length < 1) {
+            System.err.println("usage: java PoincareSection output [seconds [h]]");
+            System.exit(1);
+        }
+
+        double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 1000.0;
+        double h = args.length > 2 ? Double.parseDouble(args[2]) : 1e-3;
+
+        DoublePendulum dp = DoublePendulum.defaultPendulum();
+
+        try (TrajectoryWriter writer = new TrajectoryWriter(Paths.get(args[0]), dp, h, 0, true)) {
+
+            EventFunction theta1 = new EventFunction() {
+                @Override
+                public double value(double t, double[] y) {
+                    return y[0];
+                }
+            };
+
+            PoincareSection section = new PoincareSection(theta1, Direction.RISING, writer);
+            dp.addStepListener(section);
+
+            long steps = (long) Math.ceil(seconds / h);
+            long start = System.nanoTime();
+            while (steps > 0) {
+                int n = (int) Math.min(steps, 1000000);
+                dp.iterate(n, h);
+                steps -= n;
+            }
+
+            System.out.printf("%d crossings in %.0fs simulated, %.1fs%n", section.getCrossings(), dp.getTime(),
+                    (System.nanoTime() - start) / 1e9);
+        }
+    }
+
+}
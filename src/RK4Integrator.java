@@ -0,0 +1,58 @@
+/**
+ * The classic 4th order Runge-Kutta method, the default integrator of DoublePendulum.
+ *
+ * Accurate and cheap per step, but not symplectic: over long runs the energy of the pendulum drifts,
+ * which has to be kept down with small timesteps.
+ */
+public class RK4Integrator implements Integrator {
+
+    /**
+     * Arrays for holding the previous and intermediate points in the solver, and the RHS evaluated at them.
+     */
+    private final double[] midpt = new double[4];
+    private final double[] prev = new double[4];
+    private final double[] dydt = new double[4];
+
+    @Override
+    public void step(DoublePendulum system, double t, double[] y, double h) {
+
+        //params that used in the equations but are consts and only need to  be calulated once.
+        final double HALF = 0.5*h, THIRD = h/3.0, SIXTH = h/6.0;
+
+        for (int i = 0; i < 4; i++) midpt[i] = prev[i] = y[i];
+
+        //fill dydt with the A vector
+        system.evaluateDyDt(t, midpt, dydt);
+
+        //add 1/6 A to the state and load midpt with the intermediate time point y+a/2
+        for (int i = 0; i < 4; i++) {
+            y[i] += SIXTH * dydt[i];
+            midpt[i] = prev[i] + HALF * dydt[i];
+        }
+
+        //fill dydt with the b vector
+        system.evaluateDyDt(t + HALF, midpt, dydt);
+        // add 1/3 B to the state, load midpoint with the intermediate time point y + b/2
+        for (int i = 0; i < 4; i++) {
+            y[i] += THIRD * dydt[i];
+            midpt[i] = prev[i] + HALF * dydt[i];
+        }
+
+        //fill dydt with the c vector
+        system.evaluateDyDt(t + HALF, midpt, dydt);
+        //Add 1/3 c to the state and load a midpoint with the final point y+c
+        for (int i = 0; i < 4; i++) {
+            y[i] += THIRD * dydt[i];
+            midpt[i] = prev[i] + h * dydt[i];
+        }
+
+        //fill dy/dt with the d vector
+        system.evaluateDyDt(t + h, midpt, dydt);
+
+        //add 1/6 d to the state
+        for (int i = 0; i < 4; i++) {
+            y[i] += SIXTH * dydt[i];
+        }
+    }
+
+}
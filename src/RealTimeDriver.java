@@ -0,0 +1,328 @@
+import javax.swing.SwingUtilities;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs a DoublePendulum on its own thread with simulated time locked to the wall clock.
+ *
+ * The simulation advances in ticks of fixed simulated length. The driver accumulates the wall clock time that has
+ * passed (scaled by the time scale), runs as many ticks as the accumulator holds, and then sleeps until the next
+ * tick is due, so it only does as much work as real time needs. If the machine cannot keep up, at most MAX_BACKLOG
+ * ticks are run at once and the rest of the backlog is dropped rather than letting it grow without bound.
+ *
+ * After every tick the driver publishes the snapshots from the end of the last two ticks. A viewer painting at the
+ * display's refresh rate reads them with readInterpolated, which interpolates between the two according to how
+ * far the wall clock has moved through the current tick. The picture is one tick behind the simulation but moves
+ * smoothly however the ticks and the frames line up.
+ *
+ * The driver thread is started once and lives until shutdown. While the driver is paused or stopped the thread is
+ * parked and uses no CPU; start, pause, resume and stop only set the state and wake it, so they take effect
+ * within a tick. Stopping is cooperative: the thread finishes its tick and hands the final state to the swing
+ * thread. A stopped driver can be given a new pendulum or step with load and setStep and started again, reusing
+ * the thread.
+ */
+public class RealTimeDriver implements Runnable {
+
+    //the most ticks run in one go when catching up
+    private static final int MAX_BACKLOG = 100;
+
+    /**
+     * Told on the swing thread that the driver has stopped.
+     */
+    public interface StopListener {
+
+        /**
+         * @param last the snapshot of the pendulum when it stopped
+         */
+        void stopped(DPSnapshot last);
+    }
+
+    private enum State { STOPPED, RUNNING, PAUSED }
+
+    //the pendulum and the make up of a tick, changed only while stopped and otherwise guarded by the lock
+    private final Object lock = new Object();
+    private volatile DoublePendulum dp;
+    private volatile double tick;
+    private final boolean adaptive;
+    private double h;
+    private int stepsPerTick;
+
+    private volatile double timeScale = 1.0;
+    private volatile State state = State.STOPPED;
+    private volatile boolean shutdown = false;
+    private volatile StopListener stopListener;
+    private Thread thread;
+
+    /**
+     * The snapshots at the end of the last two ticks and the wall clock time the latest was published.
+     */
+    private static final class Frame {
+
+        final DPSnapshot previous, current;
+        final long nanoTime;
+
+        Frame(DPSnapshot previous, DPSnapshot current, long nanoTime) {
+            this.previous = previous;
+            this.current = current;
+            this.nanoTime = nanoTime;
+        }
+    }
+
+    private volatile Frame frame;
+
+    //interpolated state, used by the painting thread only
+    private final double[] interpolated = new double[4];
+
+    /**
+     * Drive the pendulum with fixed steps, stepsPerTick steps of h to a tick.
+     */
+    public RealTimeDriver(DoublePendulum dp, double h, int stepsPerTick) {
+        this(dp, h * stepsPerTick, false, h, stepsPerTick);
+    }
+
+    /**
+     * Drive the pendulum with its adaptive integrator, advancing it by tick simulated seconds at a time.
+     */
+    public RealTimeDriver(DoublePendulum dp, double tick) {
+        this(dp, tick, true, 0.0, 0);
+    }
+
+    private RealTimeDriver(DoublePendulum dp, double tick, boolean adaptive, double h, int stepsPerTick) {
+
+        if (!(tick > 0.0)) throw new IllegalArgumentException("Tick must be positive: " + tick);
+
+        this.dp = dp;
+        this.tick = tick;
+        this.adaptive = adaptive;
+        this.h = h;
+        this.stepsPerTick = stepsPerTick;
+
+        DPSnapshot now = dp.getSnapshot();
+        frame = new Frame(now, now, System.nanoTime());
+    }
+
+    /**
+     * Set how many simulated seconds pass per second of wall clock time, 1 for real time.
+     */
+    public void setTimeScale(double timeScale) {
+
+        if (!(timeScale > 0.0)) throw new IllegalArgumentException("Time scale must be positive: " + timeScale);
+        this.timeScale = timeScale;
+    }
+
+    public double getTimeScale() {
+        return timeScale;
+    }
+
+    /**
+     * Start or restart the simulation, starting the driver thread the first time. The thread is a daemon so that
+     * it does not keep the application alive. Resumes a paused driver.
+     */
+    public synchronized void start() {
+
+        if (shutdown) throw new IllegalStateException("Driver has been shut down");
+
+        state = State.RUNNING;
+        if (thread == null) {
+            thread = new Thread(this, "RealTimeDriver");
+            thread.setDaemon(true);
+            thread.start();
+        } else {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Hold the simulation where it is, leaving the thread parked until resume.
+     */
+    public synchronized void pause() {
+        if (state == State.RUNNING) state = State.PAUSED;
+    }
+
+    /**
+     * Carry on with a paused simulation; does nothing if it is running.
+     *
+     * @throws IllegalStateException if the driver is stopped, which needs start instead
+     */
+    public synchronized void resume() {
+
+        if (state == State.STOPPED) throw new IllegalStateException("Driver is stopped, start it instead");
+        if (state != State.PAUSED) return;
+        state = State.RUNNING;
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Stop the simulation at the end of the current tick. The thread stays parked for a later start.
+     *
+     * @param listener told on the swing thread once the simulation has stopped, or null
+     */
+    public synchronized void stop(StopListener listener) {
+
+        if (state == State.STOPPED) {
+            if (listener != null) notifyStopped(listener);
+            return;
+        }
+        stopListener = listener;
+        state = State.STOPPED;
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Stop the simulation and end the driver thread, waiting for it to finish.
+     */
+    public synchronized void shutdown() throws InterruptedException {
+
+        shutdown = true;
+        state = State.STOPPED;
+        if (thread == null) return;
+        LockSupport.unpark(thread);
+        thread.join();
+    }
+
+    public boolean isRunning() {
+        return state == State.RUNNING;
+    }
+
+    public boolean isPaused() {
+        return state == State.PAUSED;
+    }
+
+    /**
+     * Drive a different pendulum from now on. Only allowed while stopped; waits for the last tick to finish.
+     */
+    public void load(DoublePendulum dp) {
+
+        synchronized (lock) {
+            if (state != State.STOPPED) throw new IllegalStateException("Driver must be stopped to load a pendulum");
+            this.dp = dp;
+            DPSnapshot now = dp.getSnapshot();
+            frame = new Frame(now, now, System.nanoTime());
+        }
+    }
+
+    /**
+     * Change the fixed step of a fixed step driver, and so the length of its tick. Only allowed while stopped.
+     */
+    public void setStep(double h, int stepsPerTick) {
+
+        if (adaptive) throw new IllegalStateException("Driver is adaptive");
+        if (!(h > 0.0) || stepsPerTick < 1) throw new IllegalArgumentException("Need h > 0 and stepsPerTick >= 1");
+
+        synchronized (lock) {
+            if (state != State.STOPPED) throw new IllegalStateException("Driver must be stopped to change the step");
+            this.h = h;
+            this.stepsPerTick = stepsPerTick;
+            tick = h * stepsPerTick;
+        }
+    }
+
+    @Override
+    public void run() {
+
+        double accumulator = 0.0;
+        long last = System.nanoTime();
+        boolean idle = true;
+
+        while (!shutdown) {
+
+            if (state != State.RUNNING) {
+
+                StopListener listener = stopListener;
+                if (state == State.STOPPED && listener != null) {
+                    stopListener = null;
+                    notifyStopped(listener);
+                }
+
+                idle = true;
+                LockSupport.park(this);
+                continue;
+            }
+
+            long now = System.nanoTime();
+            double scale = timeScale;
+
+            //coming back from a pause or a stop, start the clock afresh rather than catching up
+            if (idle) {
+                idle = false;
+                accumulator = 0.0;
+                last = now;
+            }
+
+            accumulator += (now - last) * 1e-9 * scale;
+            last = now;
+
+            double tick;
+            synchronized (lock) {
+
+                tick = this.tick;
+
+                //drop what cannot be caught up
+                accumulator = Math.min(accumulator, MAX_BACKLOG * tick);
+
+                while (accumulator >= tick && state == State.RUNNING) {
+
+                    if (adaptive) dp.advanceTo(dp.getTime() + tick);
+                    else dp.iterate(stepsPerTick, h);
+                    accumulator -= tick;
+
+                    dp.publish();
+                    frame = new Frame(frame.current, dp.getSnapshot(), System.nanoTime());
+                }
+            }
+
+            //sleep until the next tick is due, or until woken by a change of state
+            if (state == State.RUNNING) {
+                long parked = System.nanoTime();
+                LockSupport.parkNanos(this, (long) ((tick - accumulator) / scale * 1e9));
+                SimulationMetrics.METRICS.recordWait(System.nanoTime() - parked);
+            }
+        }
+
+        StopListener listener = stopListener;
+        if (listener != null) notifyStopped(listener);
+    }
+
+    private void notifyStopped(final StopListener listener) {
+
+        final DPSnapshot last = dp.getSnapshot();
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                listener.stopped(last);
+            }
+        });
+    }
+
+    /**
+     * Fill out with the positions, velocities and energies of the pendulum, laid out as for
+     * DoublePendulum.readObservables, interpolated to the wall clock time nanoTime. Only to be called from one
+     * thread, normally the swing thread.
+     *
+     * @param nanoTime the wall clock time, from System.nanoTime()
+     * @param out an array of at least DoublePendulum.OBSERVABLES elements
+     */
+    public void readInterpolated(long nanoTime, double[] out) {
+
+        Frame f = frame;
+
+        //how far the wall clock is through the tick after the latest snapshot, holding still while not running
+        double alpha = 1.0;
+        if (state == State.RUNNING) {
+            alpha = (nanoTime - f.nanoTime) * 1e-9 * timeScale / tick;
+            alpha = Math.max(0.0, Math.min(1.0, alpha));
+        }
+
+        interpolated[0] = f.previous.getTheta1() + alpha * (f.current.getTheta1() - f.previous.getTheta1());
+        interpolated[1] = f.previous.getTheta2() + alpha * (f.current.getTheta2() - f.previous.getTheta2());
+        interpolated[2] = f.previous.getOmega1() + alpha * (f.current.getOmega1() - f.previous.getOmega1());
+        interpolated[3] = f.previous.getOmega2() + alpha * (f.current.getOmega2() - f.previous.getOmega2());
+
+        DPSnapshot c = f.current;
+        DoublePendulum.observables(interpolated, c.getMass1(), c.getMass2(), c.getLength1(), c.getLength2(), out);
+    }
+
+    public DoublePendulum getPendulum() {
+        return dp;
+    }
+
+}
@@ -0,0 +1,185 @@
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * Counters for the hot paths of the simulation, exposed over JMX.
+ *
+ * The counters are striped LongAdders and LongAccumulators, so threads recording at once do not contend for a
+ * single cache line. Nothing is recorded per RHS evaluation or per step: DoublePendulum counts its evaluations
+ * in a plain field and adds the count and the number of steps here once at the end of every iterate or
+ * advanceTo, so the cost to the integration loop is a few adds per call.
+ *
+ * There is one set of metrics per JVM, METRICS, registered with the platform MBean server by register().
+ */
+public class SimulationMetrics implements SimulationMetricsMBean {
+
+    public static final String OBJECT_NAME = "DoublePendulum:type=SimulationMetrics";
+
+    //declared ahead of METRICS, whose accumulators use it
+    private static final LongBinaryOperator MAX = new LongBinaryOperator() {
+        @Override
+        public long applyAsLong(long left, long right) {
+            return Math.max(left, right);
+        }
+    };
+
+    public static final SimulationMetrics METRICS = new SimulationMetrics();
+
+    private final LongAdder steps = new LongAdder();
+    private final LongAdder rhsEvaluations = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+
+    private final LongAdder paints = new LongAdder();
+    private final LongAdder paintNanos = new LongAdder();
+    private final LongAccumulator maxPaintNanos = new LongAccumulator(MAX, 0L);
+
+    private final LongAdder snapshotReads = new LongAdder();
+    private final LongAdder snapshotLatencyNanos = new LongAdder();
+    private final LongAccumulator maxSnapshotLatencyNanos = new LongAccumulator(MAX, 0L);
+
+    //for getStepsPerSecond
+    private long rateSteps = 0, rateNanos = System.nanoTime();
+
+    //the pendulum whose energy drift is reported, and its energy when watched
+    private volatile DoublePendulum watched;
+    private volatile double energy0;
+
+    private SimulationMetrics() {
+    }
+
+    /**
+     * Register METRICS with the platform MBean server, if it is not already.
+     */
+    public static synchronized void register() {
+
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(METRICS, name);
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException("Could not register " + OBJECT_NAME, e);
+        }
+    }
+
+    void recordSteps(long steps, long rhsEvaluations) {
+        this.steps.add(steps);
+        this.rhsEvaluations.add(rhsEvaluations);
+    }
+
+    void recordWait(long nanos) {
+        waitNanos.add(nanos);
+    }
+
+    void recordPaint(long nanos) {
+        paints.increment();
+        paintNanos.add(nanos);
+        maxPaintNanos.accumulate(nanos);
+    }
+
+    void recordSnapshotLatency(long nanos) {
+        snapshotReads.increment();
+        snapshotLatencyNanos.add(nanos);
+        maxSnapshotLatencyNanos.accumulate(nanos);
+    }
+
+    /**
+     * Report the energy drift of the pendulum from its energy now.
+     */
+    public void watch(DoublePendulum dp) {
+
+        double[] obs = new double[DoublePendulum.OBSERVABLES];
+        dp.getSnapshot().readObservables(obs);
+        energy0 = obs[DoublePendulum.TOTAL];
+        watched = dp;
+    }
+
+    @Override
+    public long getSteps() {
+        return steps.sum();
+    }
+
+    @Override
+    public synchronized double getStepsPerSecond() {
+
+        long now = System.nanoTime(), total = steps.sum();
+        double rate = (total - rateSteps) * 1e9 / Math.max(1L, now - rateNanos);
+        rateSteps = total;
+        rateNanos = now;
+        return rate;
+    }
+
+    @Override
+    public long getRhsEvaluations() {
+        return rhsEvaluations.sum();
+    }
+
+    @Override
+    public long getWaitNanos() {
+        return waitNanos.sum();
+    }
+
+    @Override
+    public long getPaints() {
+        return paints.sum();
+    }
+
+    @Override
+    public double getMeanPaintMillis() {
+        long n = paints.sum();
+        return n == 0 ? Double.NaN : paintNanos.sum() * 1e-6 / n;
+    }
+
+    @Override
+    public double getMaxPaintMillis() {
+        return maxPaintNanos.get() * 1e-6;
+    }
+
+    @Override
+    public double getMeanSnapshotLatencyMillis() {
+        long n = snapshotReads.sum();
+        return n == 0 ? Double.NaN : snapshotLatencyNanos.sum() * 1e-6 / n;
+    }
+
+    @Override
+    public double getMaxSnapshotLatencyMillis() {
+        return maxSnapshotLatencyNanos.get() * 1e-6;
+    }
+
+    @Override
+    public double getEnergyDrift() {
+
+        DoublePendulum dp = watched;
+        if (dp == null) return Double.NaN;
+
+        double[] obs = new double[DoublePendulum.OBSERVABLES];
+        dp.getSnapshot().readObservables(obs);
+        double e0 = energy0;
+        return (obs[DoublePendulum.TOTAL] - e0) / (e0 == 0.0 ? 1.0 : Math.abs(e0));
+    }
+
+    @Override
+    public synchronized void reset() {
+
+        steps.reset();
+        rhsEvaluations.reset();
+        waitNanos.reset();
+        paints.reset();
+        paintNanos.reset();
+        maxPaintNanos.reset();
+        snapshotReads.reset();
+        snapshotLatencyNanos.reset();
+        maxSnapshotLatencyNanos.reset();
+
+        rateSteps = 0;
+        rateNanos = System.nanoTime();
+
+        DoublePendulum dp = watched;
+        if (dp != null) watch(dp);
+    }
+
+}
@@ -0,0 +1,52 @@
+/**
+ * The management interface of SimulationMetrics, as seen in JConsole or VisualVM under
+ * DoublePendulum:type=SimulationMetrics. Times are in milliseconds unless the name says otherwise.
+ */
+public interface SimulationMetricsMBean {
+
+    /**
+     * @return the steps taken by iterate and advanceTo, accepted and rejected, over all pendulums.
+     */
+    long getSteps();
+
+    /**
+     * @return the steps per second since the previous call of this method, or since the last reset.
+     */
+    double getStepsPerSecond();
+
+    /**
+     * @return the evaluations of the equations of motion made within iterate and advanceTo.
+     */
+    long getRhsEvaluations();
+
+    /**
+     * @return the time simulation threads have spent waiting rather than integrating, such as the real time
+     * driver sleeping until its next tick, in nanoseconds.
+     */
+    long getWaitNanos();
+
+    long getPaints();
+
+    double getMeanPaintMillis();
+
+    double getMaxPaintMillis();
+
+    /**
+     * @return the mean age of the published snapshot when a view reads it.
+     */
+    double getMeanSnapshotLatencyMillis();
+
+    double getMaxSnapshotLatencyMillis();
+
+    /**
+     * @return the relative change in the total energy of the watched pendulum since it was watched (absolute if
+     * that energy was zero), or NaN if no pendulum is watched.
+     */
+    double getEnergyDrift();
+
+    /**
+     * Zero every counter and restart the energy drift from the current energy.
+     */
+    void reset();
+
+}
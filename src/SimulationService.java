@@ -0,0 +1,324 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs double pendulum simulations for other programs over a local HTTP endpoint, in one long lived JVM.
+ *
+ * GET /simulate runs a job described by its query parameters, all optional:
+ * <pre>
+ *   m1, x1, y1, vx1, vy1   mass, position and velocity of the first bob (default 1, 0, -0.2, 0, 0)
+ *   m2, x2, y2, vx2, vy2   the same for the second bob (default 1, 0, -0.4, 4, 0)
+ *   h                      the timestep (default 1e-5)
+ *   duration               the simulated time to run for (default 10)
+ *   interval               the simulated time between samples (default 0.01)
+ * </pre>
+ * and streams the samples back as they are produced, as chunked CSV lines "t, x1, y1, x2, y2, total energy".
+ * Masses must be positive, neither bob may sit on its pivot, and a job may take no more than maxSteps steps;
+ * a job that breaks these is turned away with 400. The id of the job is sent in the X-Job-Id header, and GET /cancel?id= cancels it.
+ *
+ * Every job runs on one of a fixed number of request threads, and the integration itself needs one of a smaller
+ * number of CPU permits, so no more jobs integrate at once than there are processors. A job takes a permit for
+ * each chunk of samples and gives it back before writing the chunk. Writes block when the client reads slowly,
+ * so a slow client holds back its own job without keeping a permit from the others. A job stops when it is
+ * cancelled or the client goes away, which shows up as a failed write. Jobs beyond the number of request threads
+ * are turned away with 503 rather than queued without limit.
+ */
+public class SimulationService {
+
+    //samples integrated per permit, before they are written
+    private static final int SAMPLES_PER_CHUNK = 256;
+
+    //the most steps a job may take unless the service is told otherwise, a few minutes of one core
+    public static final long DEFAULT_MAX_STEPS = 1000000000L;
+
+    private final HttpServer server;
+    private final ExecutorService requests;
+    private final Semaphore permits;
+    private final int maxJobs;
+    private final long maxSteps;
+
+    private final AtomicInteger activeJobs = new AtomicInteger();
+    private final AtomicLong nextId = new AtomicLong(1);
+
+    /**
+     * A running job and its cancellation flag.
+     */
+    private static final class Job {
+
+        final long id;
+        volatile boolean cancelled = false;
+
+        Job(long id) {
+            this.id = id;
+        }
+    }
+
+    private final Map<Long, Job> jobs = new ConcurrentHashMap<Long, Job>();
+
+    /**
+     * @param address the address to listen on, normally a loopback address
+     * @param maxJobs the most jobs accepted at once, each taking a request thread
+     * @param cpuPermits the most jobs integrating at once
+     */
+    public SimulationService(InetSocketAddress address, int maxJobs, int cpuPermits) throws IOException {
+        this(address, maxJobs, cpuPermits, DEFAULT_MAX_STEPS);
+    }
+
+    /**
+     * @param address the address to listen on, normally a loopback address
+     * @param maxJobs the most jobs accepted at once, each taking a request thread
+     * @param cpuPermits the most jobs integrating at once
+     * @param maxSteps the most steps one job may take
+     */
+    public SimulationService(InetSocketAddress address, int maxJobs, int cpuPermits, long maxSteps)
+            throws IOException {
+
+        if (maxJobs < 1 || cpuPermits < 1) throw new IllegalArgumentException("Need at least one job and one permit");
+        if (maxSteps < 1) throw new IllegalArgumentException("Need at least one step per job");
+
+        this.maxJobs = maxJobs;
+        this.maxSteps = maxSteps;
+        permits = new Semaphore(cpuPermits, true);
+
+        //one more thread than jobs so that cancellations and refusals are answered when every job is busy
+        requests = Executors.newFixedThreadPool(maxJobs + 1);
+
+        server = HttpServer.create(address, 0);
+        server.setExecutor(requests);
+        server.createContext("/simulate", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                simulate(exchange);
+            }
+        });
+        server.createContext("/cancel", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                cancel(exchange);
+            }
+        });
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Cancel the running jobs and stop the service, waiting up to delay seconds for the jobs to finish.
+     */
+    public void stop(int delay) {
+
+        for (Job job : jobs.values()) job.cancelled = true;
+        server.stop(delay);
+        requests.shutdownNow();
+    }
+
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    private void simulate(HttpExchange exchange) throws IOException {
+
+        try {
+            if (activeJobs.incrementAndGet() > maxJobs) {
+                respond(exchange, 503, "Too many jobs\n");
+                return;
+            }
+
+            DoublePendulum dp;
+            double h, duration, interval;
+            try {
+                Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+                double m1 = param(query, "m1", 1.0), m2 = param(query, "m2", 1.0);
+                double x1 = param(query, "x1", 0.0), y1 = param(query, "y1", -0.2);
+                double x2 = param(query, "x2", 0.0), y2 = param(query, "y2", -0.4);
+                if (!(m1 > 0.0) || !(m2 > 0.0)) throw new IllegalArgumentException("Need m1 > 0 and m2 > 0");
+                if (x1 == 0.0 && y1 == 0.0 || x2 == x1 && y2 == y1) {
+                    throw new IllegalArgumentException("Neither bob may be on its pivot");
+                }
+                dp = new DoublePendulum(
+                        new Particle3D(m1, new Vector3D(x1, y1, 0.0),
+                                new Vector3D(param(query, "vx1", 0.0), param(query, "vy1", 0.0), 0.0), null),
+                        new Particle3D(m2, new Vector3D(x2, y2, 0.0),
+                                new Vector3D(param(query, "vx2", 4.0), param(query, "vy2", 0.0), 0.0), null));
+                h = param(query, "h", 1e-5);
+                duration = param(query, "duration", 10.0);
+                interval = param(query, "interval", 0.01);
+                if (!(h > 0.0) || !(duration >= 0.0) || !(interval >= h)) {
+                    throw new IllegalArgumentException("Need h > 0, duration >= 0 and interval >= h");
+                }
+                //compared as doubles, so that quotients too big for an int or a long are caught before the casts
+                if (!(interval / h <= Math.min(maxSteps, Integer.MAX_VALUE)) || !(duration / h <= maxSteps)) {
+                    throw new IllegalArgumentException("Too many steps, at most " + maxSteps + " are allowed");
+                }
+            } catch (IllegalArgumentException e) {
+                respond(exchange, 400, e.getMessage() + "\n");
+                return;
+            }
+
+            Job job = new Job(nextId.getAndIncrement());
+            jobs.put(job.id, job);
+            try {
+                run(exchange, job, dp, h, duration, interval);
+            } finally {
+                jobs.remove(job.id);
+            }
+
+        } finally {
+            activeJobs.decrementAndGet();
+            exchange.close();
+        }
+    }
+
+    /**
+     * Integrate the job chunk by chunk, writing each chunk as it is finished.
+     */
+    private void run(HttpExchange exchange, Job job, DoublePendulum dp, double h, double duration, double interval)
+            throws IOException {
+
+        //no more than an int holds, checked on the way in
+        int stepsPerSample = (int) Math.round(interval / h);
+        long samples = (long) Math.floor(duration / (stepsPerSample * h) + 1e-9);
+
+        exchange.getResponseHeaders().set("Content-Type", "text/csv");
+        exchange.getResponseHeaders().set("X-Job-Id", Long.toString(job.id));
+        exchange.sendResponseHeaders(200, 0);
+
+        double[] obs = new double[DoublePendulum.OBSERVABLES];
+        StringBuilder chunk = new StringBuilder(64 * SAMPLES_PER_CHUNK);
+
+        try (OutputStream out = exchange.getResponseBody()) {
+
+            for (long sample = 0; sample < samples && !job.cancelled; ) {
+
+                chunk.setLength(0);
+                try {
+                    permits.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                try {
+                    for (int i = 0; i < SAMPLES_PER_CHUNK && sample < samples && !job.cancelled; i++, sample++) {
+                        dp.iterate(stepsPerSample, h);
+                        dp.readObservables(obs);
+                        chunk.append(dp.getTime()).append(", ")
+                                .append(obs[DoublePendulum.X1]).append(", ").append(obs[DoublePendulum.Y1]).append(", ")
+                                .append(obs[DoublePendulum.X2]).append(", ").append(obs[DoublePendulum.Y2]).append(", ")
+                                .append(obs[DoublePendulum.TOTAL]).append('\n');
+                    }
+                } finally {
+                    permits.release();
+                }
+
+                //blocks while the client is behind; fails if it has gone away, which ends the job
+                out.write(chunk.toString().getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+            }
+
+            if (job.cancelled) out.write("# cancelled\n".getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+
+    private void cancel(HttpExchange exchange) throws IOException {
+
+        try {
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            Job job = query.containsKey("id") ? jobs.get(Long.valueOf(query.get("id"))) : null;
+            if (job == null) {
+                respond(exchange, 404, "No such job\n");
+                return;
+            }
+            job.cancelled = true;
+            respond(exchange, 200, "Cancelled " + job.id + "\n");
+        } catch (NumberFormatException e) {
+            respond(exchange, 400, "Invalid job id\n");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String message) throws IOException {
+
+        byte[] body = message.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static Map<String, String> parseQuery(String raw) {
+
+        Map<String, String> query = new HashMap<String, String>();
+        if (raw == null || raw.isEmpty()) return query;
+
+        try {
+            for (String pair : raw.split("&")) {
+                int eq = pair.indexOf('=');
+                if (eq < 0) query.put(URLDecoder.decode(pair, "UTF-8"), "");
+                else query.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"), URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+        return query;
+    }
+
+    /**
+     * The parameter as a finite double, or the default if it is absent.
+     */
+    private static double param(Map<String, String> query, String name, double otherwise) {
+
+        String value = query.get(name);
+        if (value == null) return otherwise;
+        double number;
+        try {
+            number = Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + name + ": " + value);
+        }
+        //NaN passes every check that compares, and either would run the job on with NaN forever
+        if (Double.isNaN(number) || Double.isInfinite(number)) {
+            throw new IllegalArgumentException("Invalid " + name + ": " + value);
+        }
+        return number;
+    }
+
+    /**
+     * Serve on the loopback address until killed.
+     *
+     * usage: java SimulationService [port [maxJobs [maxSteps]]]
+     * e.g.   curl 'http://localhost:8085/simulate?vx2=3&duration=60&interval=0.1'
+     */
+    public static void main(String[] args) throws IOException {
+
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8085;
+        int maxJobs = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        long maxSteps = args.length > 2 ? Long.parseLong(args[2]) : DEFAULT_MAX_STEPS;
+        int processors = Runtime.getRuntime().availableProcessors();
+
+        SimulationService service = new SimulationService(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), port), maxJobs, processors, maxSteps);
+        service.start();
+        System.out.println("Serving on " + service.getAddress() + " with " + processors + " cpu permits");
+    }
+
+}
@@ -0,0 +1,21 @@
+/**
+ * Receives every step taken by a DoublePendulum, from within iterate or advanceTo.
+ *
+ * Listeners run on the integrating thread in the middle of the integration loop, so they should be quick.
+ * The state arrays are laid out as in DoublePendulum and belong to the pendulum: they must not be modified,
+ * and their contents are only valid for the duration of the call.
+ */
+public interface StepListener {
+
+    /**
+     * Called after the pendulum has stepped from yPrev at time tPrev to y at time t.
+     *
+     * @param system the pendulum that took the step
+     * @param tPrev the time at the start of the step
+     * @param yPrev the state at the start of the step
+     * @param t the time at the end of the step
+     * @param y the state at the end of the step
+     */
+    void stepTaken(DoublePendulum system, double tPrev, double[] yPrev, double t, double[] y);
+
+}
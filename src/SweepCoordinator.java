@@ -0,0 +1,272 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Computes a FlipMap too big for one JVM with several worker processes on the same machine.
+ *
+ * The rows of the map are cut into shards of rowsPerShard rows. The coordinator starts a SweepWorker JVM for
+ * each worker and hands the shards out over the workers' stdin one at a time, giving the next to whichever worker
+ * finishes first, so the workers stay busy however slow the shards in the chaotic regions are. A worker that dies
+ * has its shard put back and is started again, up to MAX_RESTARTS times.
+ *
+ * Every finished shard is a file in output.shards, written atomically by the worker, next to a file recording the
+ * parameters of the sweep. If the coordinator is killed, running it again with the same arguments only computes
+ * the shards that have no file yet. Once every shard is done they are merged into output.flt and output.png,
+ * exactly as FlipMap writes them, and the shard directory is removed.
+ *
+ * usage: java SweepCoordinator width height tMax h output [workers [rowsPerShard [mass1 mass2 length1 length2]]]
+ */
+public class SweepCoordinator {
+
+    //times a worker is started again after dying before its slot gives up
+    private static final int MAX_RESTARTS = 3;
+
+    private final int width, height;
+    private final double tMax, h, mass1, mass2, length1, length2;
+    private final int rowsPerShard, shards;
+    private final Path directory;
+
+    private final ConcurrentLinkedQueue<Integer> pending = new ConcurrentLinkedQueue<Integer>();
+    private final AtomicInteger done = new AtomicInteger();
+    private final long start = System.nanoTime();
+
+    public SweepCoordinator(int width, int height, double tMax, double h, double mass1, double mass2,
+                            double length1, double length2, int rowsPerShard, Path directory) {
+
+        if (width < 1 || height < 1) throw new IllegalArgumentException("Grid must be at least 1x1");
+        if (!(h > 0.0) || !(tMax > 0.0)) throw new IllegalArgumentException("h and tMax must be positive");
+        if (rowsPerShard < 1) throw new IllegalArgumentException("Need at least one row per shard");
+
+        this.width = width;
+        this.height = height;
+        this.tMax = tMax;
+        this.h = h;
+        this.mass1 = mass1;
+        this.mass2 = mass2;
+        this.length1 = length1;
+        this.length2 = length2;
+        this.rowsPerShard = rowsPerShard;
+        this.directory = directory;
+        shards = (height + rowsPerShard - 1) / rowsPerShard;
+    }
+
+    private int firstRow(int shard) {
+        return shard * rowsPerShard;
+    }
+
+    private int endRow(int shard) {
+        return Math.min(height, (shard + 1) * rowsPerShard);
+    }
+
+    /**
+     * The arguments describing the sweep, given to every worker and recorded in the shard directory.
+     */
+    private List<String> parameters() {
+
+        List<String> parameters = new ArrayList<String>();
+        Collections.addAll(parameters, Integer.toString(width), Integer.toString(height), Double.toString(tMax),
+                Double.toString(h), Double.toString(mass1), Double.toString(mass2), Double.toString(length1),
+                Double.toString(length2));
+        return parameters;
+    }
+
+    /**
+     * Create the shard directory, or check that an existing one holds the same sweep, and queue the shards that
+     * are not done yet.
+     *
+     * @return the number of shards still to do
+     */
+    int prepare() throws IOException {
+
+        Path manifest = directory.resolve("sweep.txt");
+        String description = String.join(" ", parameters()) + " " + rowsPerShard;
+
+        if (Files.exists(manifest)) {
+            String existing = new String(Files.readAllBytes(manifest), StandardCharsets.US_ASCII).trim();
+            if (!existing.equals(description)) {
+                throw new IOException(directory + " holds a different sweep (" + existing + "), remove it to start over");
+            }
+        } else {
+            Files.createDirectories(directory);
+            Files.write(manifest, (description + "\n").getBytes(StandardCharsets.US_ASCII));
+        }
+
+        for (int shard = 0; shard < shards; shard++) {
+            Path file = SweepWorker.shardFile(directory, shard);
+            if (Files.exists(file) && Files.size(file) == 4L * width * (endRow(shard) - firstRow(shard))) {
+                done.incrementAndGet();
+            } else {
+                pending.add(shard);
+            }
+        }
+        return pending.size();
+    }
+
+    /**
+     * Run the given number of workers until every shard is done or every worker has given up.
+     *
+     * @return whether every shard is done
+     */
+    boolean run(int workers) throws InterruptedException {
+
+        Thread[] threads = new Thread[workers];
+        for (int i = 0; i < workers; i++) {
+            final int worker = i;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    drive(worker);
+                }
+            }, "SweepCoordinator-" + i);
+            threads[i].start();
+        }
+        for (Thread thread : threads) thread.join();
+
+        return done.get() == shards;
+    }
+
+    /**
+     * Keep a worker process busy with shards until none are left.
+     */
+    private void drive(int worker) {
+
+        for (int restarts = 0; restarts <= MAX_RESTARTS && !pending.isEmpty(); restarts++) {
+
+            Process process = null;
+            Integer shard = null;
+            try {
+                List<String> command = new ArrayList<String>();
+                Collections.addAll(command, Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                        "-cp", System.getProperty("java.class.path"), "SweepWorker", directory.toString());
+                command.addAll(parameters());
+                process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+
+                Writer to = new OutputStreamWriter(process.getOutputStream(), StandardCharsets.US_ASCII);
+                BufferedReader from = new BufferedReader(new InputStreamReader(process.getInputStream(),
+                        StandardCharsets.US_ASCII));
+
+                while ((shard = pending.poll()) != null) {
+
+                    long begin = System.nanoTime();
+                    to.write("shard " + shard + " " + firstRow(shard) + " " + endRow(shard) + "\n");
+                    to.flush();
+
+                    String reply = from.readLine();
+                    if (!("done " + shard).equals(reply)) throw new IOException("worker replied " + reply);
+
+                    System.out.printf("[%d/%d] shard %d on worker %d in %.1fs (%.0fs elapsed)%n", done.incrementAndGet(),
+                            shards, shard, worker, (System.nanoTime() - begin) / 1e9, (System.nanoTime() - start) / 1e9);
+                    shard = null;
+                }
+
+                to.write("quit\n");
+                to.close();
+                process.waitFor();
+                return;
+
+            } catch (IOException | InterruptedException e) {
+                System.err.println("worker " + worker + " failed: " + e.getMessage());
+                if (shard != null) pending.add(shard);
+                if (process != null) process.destroyForcibly();
+            }
+        }
+    }
+
+    /**
+     * Merge the shards into the map, write it as FlipMap does and remove the shard directory.
+     */
+    void merge(Path output) throws IOException {
+
+        FlipMap map = new FlipMap(width, height, mass1, mass2, length1, length2, h, tMax);
+
+        for (int shard = 0; shard < shards; shard++) {
+            Path file = SweepWorker.shardFile(directory, shard);
+            ByteBuffer buffer = ByteBuffer.allocate(4 * width * (endRow(shard) - firstRow(shard)))
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0) ;
+            }
+            if (buffer.hasRemaining()) throw new IOException(file + " is truncated");
+            buffer.flip();
+
+            float[] rows = new float[buffer.remaining() / 4];
+            buffer.asFloatBuffer().get(rows);
+            map.setRows(firstRow(shard), rows);
+        }
+
+        map.writeMatrix(Paths.get(output + ".flt"));
+        map.writeImage(Paths.get(output + ".png"));
+
+        for (int shard = 0; shard < shards; shard++) Files.delete(SweepWorker.shardFile(directory, shard));
+        Files.delete(directory.resolve("sweep.txt"));
+        Files.delete(directory);
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+
+        int width, height, workers, rowsPerShard;
+        double tMax, h;
+        String output;
+        double mass1 = 1.0, mass2 = 1.0, length1 = 1.0, length2 = 1.0;
+
+        try {
+            width = Integer.parseInt(args[0]);
+            height = Integer.parseInt(args[1]);
+            tMax = Double.parseDouble(args[2]);
+            h = Double.parseDouble(args[3]);
+            output = args[4];
+            workers = args.length > 5 ? Integer.parseInt(args[5]) : Runtime.getRuntime().availableProcessors();
+            //enough shards for the work to even out between the workers
+            rowsPerShard = args.length > 6 ? Integer.parseInt(args[6]) : Math.max(1, height / (16 * workers));
+            if (args.length >= 11) {
+                mass1 = Double.parseDouble(args[7]);
+                mass2 = Double.parseDouble(args[8]);
+                length1 = Double.parseDouble(args[9]);
+                length2 = Double.parseDouble(args[10]);
+            }
+        } catch (Exception e) {
+            System.err.println("usage: java SweepCoordinator width height tMax h output "
+                    + "[workers [rowsPerShard [mass1 mass2 length1 length2]]]");
+            System.exit(1);
+            return;
+        }
+
+        SweepCoordinator sweep = new SweepCoordinator(width, height, tMax, h, mass1, mass2, length1, length2,
+                rowsPerShard, Paths.get(output + ".shards"));
+
+        int todo;
+        try {
+            todo = sweep.prepare();
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+            return;
+        }
+        System.out.printf("%d of %d shards to do on %d workers%n", todo, sweep.shards, workers);
+
+        if (!sweep.run(workers)) {
+            System.err.println((sweep.shards - sweep.done.get()) + " shards failed, run again to retry them");
+            System.exit(1);
+        }
+
+        sweep.merge(Paths.get(output));
+        System.out.printf("%dx%d map in %.1fs%n", width, height, (System.nanoTime() - sweep.start) / 1e9);
+    }
+
+}
@@ -0,0 +1,89 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * A worker process of a SweepCoordinator sweep, computing shards of a FlipMap.
+ *
+ * The worker reads one command per line from stdin and answers each on stdout:
+ * <pre>
+ *   shard index from to    compute the flip times of rows from to to and write them to the shard file,
+ *                          then answer "done index"
+ *   quit                   exit, as does the end of stdin
+ * </pre>
+ * A shard file is the flip times of its rows, row by row, as little endian floats. It is written to a temporary
+ * file and moved into place, so a shard file that exists is complete. Anything else the worker has to say goes to
+ * stderr.
+ *
+ * usage: java SweepWorker directory width height tMax h mass1 mass2 length1 length2
+ */
+public class SweepWorker {
+
+    /**
+     * The file shard index of a sweep is kept in.
+     */
+    static Path shardFile(Path directory, int index) {
+        return directory.resolve("shard-" + index + ".flt");
+    }
+
+    public static void main(String[] args) throws IOException {
+
+        Path directory;
+        int width, height;
+        double tMax, h, mass1, mass2, length1, length2;
+
+        try {
+            directory = Paths.get(args[0]);
+            width = Integer.parseInt(args[1]);
+            height = Integer.parseInt(args[2]);
+            tMax = Double.parseDouble(args[3]);
+            h = Double.parseDouble(args[4]);
+            mass1 = Double.parseDouble(args[5]);
+            mass2 = Double.parseDouble(args[6]);
+            length1 = Double.parseDouble(args[7]);
+            length2 = Double.parseDouble(args[8]);
+        } catch (Exception e) {
+            System.err.println("usage: java SweepWorker directory width height tMax h mass1 mass2 length1 length2");
+            System.exit(1);
+            return;
+        }
+
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.US_ASCII));
+
+        String line;
+        while ((line = in.readLine()) != null) {
+
+            String[] command = line.trim().split("\\s+");
+            if (command[0].equals("quit")) break;
+            if (!command[0].equals("shard") || command.length != 4) {
+                System.err.println("SweepWorker: unknown command " + line);
+                System.exit(1);
+            }
+
+            int index = Integer.parseInt(command[1]);
+            int from = Integer.parseInt(command[2]), to = Integer.parseInt(command[3]);
+
+            ByteBuffer buffer = ByteBuffer.allocate(4 * width * (to - from)).order(ByteOrder.LITTLE_ENDIAN);
+            for (int row = from; row < to; row++) {
+                double theta2 = FlipMap.angle(row, height);
+                for (int col = 0; col < width; col++) {
+                    buffer.putFloat((float) FlipMap.flipTime(mass1, mass2, length1, length2,
+                            FlipMap.angle(col, width), theta2, h, tMax));
+                }
+            }
+            buffer.flip();
+
+            Path shard = shardFile(directory, index);
+            DPCheckpoint.writeAtomically(buffer, shard, shard.resolveSibling(shard.getFileName() + ".tmp"));
+
+            System.out.println("done " + index);
+            System.out.flush();
+        }
+    }
+
+}
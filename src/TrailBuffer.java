@@ -0,0 +1,72 @@
+/**
+ * The most recent positions of a point, held in a fixed size ring of primitive coordinates.
+ *
+ * Adding a point overwrites the oldest once the buffer is full, so it never allocates after construction.
+ * Points are indexed by the running count of points ever added, which lets a reader that remembers the count it
+ * last saw pick up only the points added since. Not thread safe; it is filled and read on the swing thread.
+ */
+public class TrailBuffer {
+
+    private final double[] xs, ys;
+
+    //the number of points ever added
+    private long count = 0;
+
+    public TrailBuffer(int capacity) {
+
+        if (capacity < 2) throw new IllegalArgumentException("Capacity must be at least 2: " + capacity);
+        xs = new double[capacity];
+        ys = new double[capacity];
+    }
+
+    public void add(double x, double y) {
+
+        int i = (int) (count % xs.length);
+        xs[i] = x;
+        ys[i] = y;
+        count++;
+    }
+
+    /**
+     * Forget every point.
+     */
+    public void clear() {
+        count = 0;
+    }
+
+    public int capacity() {
+        return xs.length;
+    }
+
+    /**
+     * @return the number of points ever added since construction or the last clear.
+     */
+    public long count() {
+        return count;
+    }
+
+    /**
+     * @return the index of the oldest point still held.
+     */
+    public long first() {
+        return Math.max(0, count - xs.length);
+    }
+
+    /**
+     * @param n the index of the point, from first() up to count() - 1.
+     */
+    public double getX(long n) {
+        return xs[slot(n)];
+    }
+
+    public double getY(long n) {
+        return ys[slot(n)];
+    }
+
+    private int slot(long n) {
+
+        if (n < first() || n >= count) throw new IndexOutOfBoundsException("Point " + n + " is not held");
+        return (int) (n % xs.length);
+    }
+
+}
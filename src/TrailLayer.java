@@ -0,0 +1,124 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+/**
+ * Draws the trail held in a TrailBuffer through a persistent off-screen image.
+ *
+ * Rather than redrawing the whole history on every paint, the image keeps what has been drawn before. When new
+ * points have arrived it is faded by scaling down every pixel, and only the segments to the new points are
+ * rasterised, so the cost of a paint depends on the size of the view and not on the length of the run. The fade
+ * works on the premultiplied pixels directly, taking at least one off every non-zero channel, so that old
+ * segments fade right out instead of lingering at a low alpha as they do when faded through a composite.
+ * The image is only redrawn from the buffer when the view is resized or rescaled, or the buffer is cleared.
+ *
+ * Used from the swing thread only.
+ */
+public class TrailLayer {
+
+    private final TrailBuffer trail;
+    private final Color color;
+    //the fade per update in 256ths
+    private final int fade;
+    private final Stroke stroke = new BasicStroke(1.5f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+
+    private BufferedImage image;
+    private int[] pixels;
+    private Graphics2D graphics;
+
+    //the mapping the image was drawn with, (x,y) -> (ox + sx*x, oy + sy*y)
+    private double ox, oy, sx, sy;
+
+    //the count of the trail up to which the image is drawn
+    private long drawn = 0;
+
+    /**
+     * @param trail the points to draw
+     * @param color the colour of the newest segments
+     * @param fade the fraction of its opacity the trail loses each time new points are drawn, between 0 and 1
+     */
+    public TrailLayer(TrailBuffer trail, Color color, float fade) {
+
+        if (!(fade >= 0.0f && fade <= 1.0f)) throw new IllegalArgumentException("Fade must be in [0, 1]: " + fade);
+
+        this.trail = trail;
+        this.color = color;
+        this.fade = Math.round(fade * 256.0f);
+    }
+
+    /**
+     * Bring the image up to date with the trail and draw it onto g.
+     */
+    public void paint(Graphics g, int width, int height, double ox, double oy, double sx, double sy) {
+
+        if (width <= 0 || height <= 0) return;
+
+        if (image == null || image.getWidth() != width || image.getHeight() != height
+                || ox != this.ox || oy != this.oy || sx != this.sx || sy != this.sy || trail.count() < drawn) {
+            redraw(width, height, ox, oy, sx, sy);
+        } else if (trail.count() > drawn) {
+            fade();
+            drawSegments();
+        }
+
+        g.drawImage(image, 0, 0, null);
+    }
+
+    /**
+     * Start a new image and draw every segment still held in the trail onto it.
+     */
+    private void redraw(int width, int height, double ox, double oy, double sx, double sy) {
+
+        if (graphics != null) graphics.dispose();
+
+        image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+        pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        graphics = image.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        graphics.setStroke(stroke);
+        graphics.setColor(color);
+
+        this.ox = ox;
+        this.oy = oy;
+        this.sx = sx;
+        this.sy = sy;
+        drawn = 0;
+
+        drawSegments();
+    }
+
+    /**
+     * Scale every channel of every pixel by 1 - fade/256, rounding the loss up.
+     */
+    private void fade() {
+
+        int k = fade;
+        for (int i = 0; i < pixels.length; i++) {
+
+            int p = pixels[i];
+            if (p == 0) continue;
+
+            int a = p >>> 24, r = (p >>> 16) & 0xff, g = (p >>> 8) & 0xff, b = p & 0xff;
+            a -= (a * k + 255) >> 8;
+            r -= (r * k + 255) >> 8;
+            g -= (g * k + 255) >> 8;
+            b -= (b * k + 255) >> 8;
+            pixels[i] = (a << 24) | (r << 16) | (g << 8) | b;
+        }
+    }
+
+    /**
+     * Draw the segments ending at the points added since the last call.
+     */
+    private void drawSegments() {
+
+        long count = trail.count();
+        for (long n = Math.max(drawn, trail.first() + 1); n < count; n++) {
+            graphics.drawLine(
+                    (int) Math.round(ox + sx * trail.getX(n - 1)), (int) Math.round(oy + sy * trail.getY(n - 1)),
+                    (int) Math.round(ox + sx * trail.getX(n)), (int) Math.round(oy + sy * trail.getY(n)));
+        }
+        drawn = count;
+    }
+
+}
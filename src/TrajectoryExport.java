@@ -0,0 +1,61 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Export a binary trajectory to the text layout of DoublePendulum.out: one line per record holding the time,
+ * kinetic, potential and total energy, separated by ", ". Energies missing from the file are computed from
+ * the stored state.
+ *
+ * usage: java TrajectoryExport input.traj output.csv
+ */
+public class TrajectoryExport {
+
+    public static void main(String[] args) throws IOException {
+
+        if (args.length != 2) {
+            System.err.println("usage: java TrajectoryExport input.traj output.csv");
+            System.exit(1);
+        }
+
+        try (TrajectoryReader reader = new TrajectoryReader(Paths.get(args[0]));
+             BufferedWriter output = Files.newBufferedWriter(Paths.get(args[1]), StandardCharsets.US_ASCII)) {
+            export(reader, output);
+        }
+    }
+
+    /**
+     * Write every record of the trajectory to output in the layout of DoublePendulum.out.
+     */
+    static void export(TrajectoryReader reader, BufferedWriter output) throws IOException {
+
+        double[] record = new double[reader.getRecordDoubles()];
+        double[] y = new double[4];
+        double[] obs = new double[DoublePendulum.OBSERVABLES];
+
+        for (long i = 0; i < reader.size(); i++) {
+
+            reader.read(i, record);
+
+            double ke, v, tot;
+            if (reader.hasEnergies()) {
+                ke = record[5];
+                v = record[6];
+                tot = record[7];
+            } else {
+                System.arraycopy(record, 1, y, 0, 4);
+                DoublePendulum.observables(y, reader.getMass1(), reader.getMass2(),
+                        reader.getLength1(), reader.getLength2(), obs);
+                ke = obs[DoublePendulum.KINETIC];
+                v = obs[DoublePendulum.POTENTIAL];
+                tot = obs[DoublePendulum.TOTAL];
+            }
+
+            output.write(record[0] + ", " + ke + ", " + v + ", " + tot);
+            output.newLine();
+        }
+    }
+
+}
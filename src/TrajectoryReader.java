@@ -0,0 +1,165 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a trajectory written by TrajectoryWriter.
+ *
+ * The file is memory mapped, so any record can be read by its index without reading those before it.
+ * Files larger than a single mapping allows are mapped in several regions, each holding a whole number of records.
+ * The number of records is taken from the length of the file, so a trajectory cut short by a crash can still be
+ * read up to its last complete record.
+ */
+public class TrajectoryReader implements Closeable {
+
+    //the largest region mapped at once
+    private static final long MAX_REGION = 1L << 30;
+
+    private final FileChannel channel;
+
+    private final int flags;
+    private final int recordDoubles;
+    private final double mass1, mass2, length1, length2, h;
+    private final long sampleInterval;
+
+    private final long records;
+    private final long recordsPerRegion;
+    private final MappedByteBuffer[] regions;
+
+    public TrajectoryReader(Path path) throws IOException {
+
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+
+        try {
+            if (channel.size() < TrajectoryWriter.HEADER_SIZE) {
+                throw new IOException(path + " is too short to be a trajectory");
+            }
+
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, TrajectoryWriter.HEADER_SIZE);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+
+            if (header.getInt() != TrajectoryWriter.MAGIC) throw new IOException(path + " is not a trajectory");
+            int version = header.getInt();
+            if (version != TrajectoryWriter.VERSION) throw new IOException("Unsupported trajectory version " + version);
+
+            flags = header.getInt();
+            recordDoubles = header.getInt();
+            mass1 = header.getDouble();
+            mass2 = header.getDouble();
+            length1 = header.getDouble();
+            length2 = header.getDouble();
+            h = header.getDouble();
+            sampleInterval = header.getLong();
+
+            //the writer only writes these two layouts, and the record arithmetic below needs a positive width
+            int expected = (flags & TrajectoryWriter.FLAG_ENERGIES) != 0
+                    ? TrajectoryWriter.ENERGY_DOUBLES : TrajectoryWriter.STATE_DOUBLES;
+            if ((flags & ~TrajectoryWriter.FLAG_ENERGIES) != 0 || recordDoubles != expected) {
+                throw new IOException(path + " has a corrupt header: flags " + flags + ", " + recordDoubles
+                        + " doubles per record");
+            }
+
+            long recordSize = 8L * recordDoubles;
+            records = (channel.size() - TrajectoryWriter.HEADER_SIZE) / recordSize;
+            recordsPerRegion = MAX_REGION / recordSize;
+
+            //a partial last record is a write cut short and is ignored, but the whole records must fit the index
+            if ((records + recordsPerRegion - 1) / recordsPerRegion > Integer.MAX_VALUE) {
+                throw new IOException(path + " is too long to be a trajectory: " + channel.size() + " bytes");
+            }
+
+            regions = new MappedByteBuffer[(int) ((records + recordsPerRegion - 1) / recordsPerRegion)];
+            for (int r = 0; r < regions.length; r++) {
+                long first = r * recordsPerRegion;
+                long count = Math.min(recordsPerRegion, records - first);
+                regions[r] = channel.map(FileChannel.MapMode.READ_ONLY,
+                        TrajectoryWriter.HEADER_SIZE + first * recordSize, count * recordSize);
+                regions[r].order(ByteOrder.LITTLE_ENDIAN);
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Read record i into out: t, theta1, theta2, omega1, omega2 and, if stored, the kinetic, potential
+     * and total energy.
+     *
+     * @param i the index of the record
+     * @param out an array of at least getRecordDoubles() elements
+     */
+    public void read(long i, double[] out) {
+
+        if (i < 0 || i >= records) throw new IndexOutOfBoundsException("Record " + i + " of " + records);
+
+        MappedByteBuffer region = regions[(int) (i / recordsPerRegion)];
+        int offset = (int) (i % recordsPerRegion) * recordDoubles * 8;
+        for (int k = 0; k < recordDoubles; k++) out[k] = region.getDouble(offset + 8 * k);
+    }
+
+    /**
+     * @return the time of record i.
+     */
+    public double getTime(long i) {
+
+        if (i < 0 || i >= records) throw new IndexOutOfBoundsException("Record " + i + " of " + records);
+
+        return regions[(int) (i / recordsPerRegion)].getDouble((int) (i % recordsPerRegion) * recordDoubles * 8);
+    }
+
+    /**
+     * @return the number of complete records in the file.
+     */
+    public long size() {
+        return records;
+    }
+
+    public int getRecordDoubles() {
+        return recordDoubles;
+    }
+
+    public boolean hasEnergies() {
+        return (flags & TrajectoryWriter.FLAG_ENERGIES) != 0;
+    }
+
+    public double getMass1() {
+        return mass1;
+    }
+
+    public double getMass2() {
+        return mass2;
+    }
+
+    public double getLength1() {
+        return length1;
+    }
+
+    public double getLength2() {
+        return length2;
+    }
+
+    /**
+     * @return the timestep the trajectory was integrated with.
+     */
+    public double getH() {
+        return h;
+    }
+
+    /**
+     * @return the number of steps between records, or 0 if they are not evenly spaced.
+     */
+    public long getSampleInterval() {
+        return sampleInterval;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+}
@@ -0,0 +1,300 @@
+import java.util.Arrays;
+
+/**
+ * Records the trajectory of a DoublePendulum in memory so that its state can be looked up at any time covered.
+ *
+ * Added to the pendulum as a StepListener, the store keeps the time, the state and the derivative of the state at
+ * the end of every step, and for the steps of advanceTo the extra coefficient of the Dormand-Prince continuous
+ * extension, in growable primitive arrays. stateAt finds the step holding the time asked for by binary search and
+ * interpolates within it. A lookup is O(log n) in the number of steps recorded and needs no integration, so
+ * scrubbing back and forth, replaying at another rate or resampling onto an even grid are all cheap.
+ *
+ * Within the steps of advanceTo the interpolant is the continuous extension, 4th order and built from the stages
+ * the step already computed, so recording costs no evaluations of the equations of motion. The steps of iterate
+ * have no stage data to hand: the derivative at the end of each is evaluated, once per step, and the interpolant
+ * is the cubic Hermite polynomial through the values and derivatives at the ends, also 4th order but with a larger
+ * error constant. Either way the interpolation is less accurate than the integration itself, whose error is
+ * 5th order in the step for advanceTo.
+ *
+ * One thread records, the integrating thread, while any number of others look states up at the same time: each
+ * point is published once complete, and the arrays are replaced rather than overwritten when they grow or the
+ * store starts afresh. The store holds the one continuous trajectory: a step that does not start where the last
+ * one ended, because the pendulum's state was set or a different pendulum was given the store, starts the store
+ * afresh.
+ *
+ * usage: java TrajectoryStore seconds [queries]
+ */
+public class TrajectoryStore implements StepListener {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * A recorded trajectory. Points below size are complete and never change, so a reader that reads size first
+     * can use them without locking.
+     */
+    private static final class Track {
+
+        final double[] times, states, derivatives;
+
+        //the continuous extension coefficient of the step from each point to the next, zero for Hermite
+        final double[] dense;
+
+        //the masses and lengths of the pendulum, for the observables
+        final double mass1, mass2, length1, length2;
+
+        volatile int size;
+
+        Track(int capacity, double mass1, double mass2, double length1, double length2) {
+            this(new double[capacity], new double[4 * capacity], new double[4 * capacity], new double[4 * capacity],
+                    mass1, mass2, length1, length2, 0);
+        }
+
+        Track(double[] times, double[] states, double[] derivatives, double[] dense,
+              double mass1, double mass2, double length1, double length2, int size) {
+            this.times = times;
+            this.states = states;
+            this.derivatives = derivatives;
+            this.dense = dense;
+            this.mass1 = mass1;
+            this.mass2 = mass2;
+            this.length1 = length1;
+            this.length2 = length2;
+            this.size = size;
+        }
+
+        Track grow() {
+            int n = times.length;
+            return new Track(Arrays.copyOf(times, 2 * n), Arrays.copyOf(states, 8 * n),
+                    Arrays.copyOf(derivatives, 8 * n), Arrays.copyOf(dense, 8 * n),
+                    mass1, mass2, length1, length2, size);
+        }
+    }
+
+    private volatile Track track = new Track(INITIAL_CAPACITY, Double.NaN, Double.NaN, Double.NaN, Double.NaN);
+
+    //working arrays of the recording thread
+    private final double[] f0 = new double[4], f1 = new double[4], dense = new double[4];
+
+    //scratch state for observablesAt, one per reading thread
+    private static final ThreadLocal<double[]> STATE = new ThreadLocal<double[]>() {
+        @Override
+        protected double[] initialValue() {
+            return new double[4];
+        }
+    };
+
+    @Override
+    public void stepTaken(DoublePendulum system, double tPrev, double[] yPrev, double t, double[] y) {
+
+        boolean continuous = system.readDenseOutput(t - tPrev, f0, f1, dense);
+        if (!continuous) {
+            Arrays.fill(dense, 0.0);
+            system.evaluateDyDt(t, y, f1);
+        }
+
+        Track tr = track;
+        int n = tr.size;
+        if (n == 0 || tPrev != tr.times[n - 1]) {
+            tr = new Track(INITIAL_CAPACITY, system.getMass1(), system.getMass2(), system.getLength1(),
+                    system.getLength2());
+            if (!continuous) system.evaluateDyDt(tPrev, yPrev, f0);
+            append(tr, tPrev, yPrev, f0);
+            track = tr;
+        }
+
+        //the coefficient belongs to the step starting at the last point
+        System.arraycopy(dense, 0, tr.dense, 4 * (tr.size - 1), 4);
+        tr = append(tr, t, y, f1);
+    }
+
+    /**
+     * Add a point to the track, publishing it once complete.
+     *
+     * @return the track, a new one if it had to grow
+     */
+    private Track append(Track tr, double t, double[] y, double[] f) {
+
+        int n = tr.size;
+        if (n == tr.times.length) {
+            tr = tr.grow();
+            track = tr;
+        }
+
+        tr.times[n] = t;
+        System.arraycopy(y, 0, tr.states, 4 * n, 4);
+        System.arraycopy(f, 0, tr.derivatives, 4 * n, 4);
+        tr.size = n + 1;
+        return tr;
+    }
+
+    /**
+     * Forget the recorded trajectory.
+     */
+    public void clear() {
+        track = new Track(INITIAL_CAPACITY, Double.NaN, Double.NaN, Double.NaN, Double.NaN);
+    }
+
+    /**
+     * @return the number of points recorded, one more than the number of steps
+     */
+    public int size() {
+        return track.size;
+    }
+
+    public double getStartTime() {
+        Track tr = track;
+        if (tr.size == 0) throw new IllegalStateException("Nothing recorded");
+        return tr.times[0];
+    }
+
+    public double getEndTime() {
+        Track tr = track;
+        int n = tr.size;
+        if (n == 0) throw new IllegalStateException("Nothing recorded");
+        return tr.times[n - 1];
+    }
+
+    /**
+     * @return the time of recorded point i
+     */
+    public double getTime(int i) {
+        Track tr = track;
+        if (i < 0 || i >= tr.size) throw new IndexOutOfBoundsException("Point " + i + " of " + tr.size);
+        return tr.times[i];
+    }
+
+    /**
+     * Read the state at recorded point i into out, laid out as DoublePendulum.state.
+     */
+    public void readState(int i, double[] out) {
+        Track tr = track;
+        if (i < 0 || i >= tr.size) throw new IndexOutOfBoundsException("Point " + i + " of " + tr.size);
+        System.arraycopy(tr.states, 4 * i, out, 0, 4);
+    }
+
+    /**
+     * Interpolate the state at time t into out, laid out as DoublePendulum.state.
+     *
+     * @throws IllegalArgumentException if t is outside the recorded trajectory
+     */
+    public void stateAt(double t, double[] out) {
+        interpolate(track, t, out);
+    }
+
+    private static void interpolate(Track tr, double t, double[] out) {
+
+        int n = tr.size;
+        double[] times = tr.times, states = tr.states;
+
+        if (n == 0 || !(t >= times[0] && t <= times[n - 1])) {
+            throw new IllegalArgumentException("Time " + t + " is outside the recorded trajectory");
+        }
+
+        int i = Arrays.binarySearch(times, 0, n, t);
+        if (i >= 0) {
+            System.arraycopy(states, 4 * i, out, 0, 4);
+            return;
+        }
+
+        //the step from point k to point k + 1 holds t. In the form of Hairer's contd5, which with a zero
+        //coefficient is the cubic Hermite polynomial
+        int k = -i - 2;
+        double h = times[k + 1] - times[k];
+        double s = (t - times[k]) / h, r = 1.0 - s;
+        double[] derivatives = tr.derivatives, dense = tr.dense;
+
+        for (int j = 0; j < 4; j++) {
+            int a = 4 * k + j, b = a + 4;
+            double dy = states[b] - states[a];
+            double c3 = h * derivatives[a] - dy;
+            double c4 = dy - h * derivatives[b] - c3;
+            out[j] = states[a] + s * (dy + r * (c3 + s * (c4 + r * dense[a])));
+        }
+    }
+
+    /**
+     * @return the state at time t in a new array
+     */
+    public double[] stateAt(double t) {
+        double[] out = new double[4];
+        stateAt(t, out);
+        return out;
+    }
+
+    /**
+     * Fill out with the positions, velocities and energies at time t, laid out as for
+     * DoublePendulum.readObservables.
+     */
+    public void observablesAt(double t, double[] out) {
+        Track tr = track;
+        double[] state = STATE.get();
+        interpolate(tr, t, state);
+        DoublePendulum.observables(state, tr.mass1, tr.mass2, tr.length1, tr.length2, out);
+    }
+
+    /**
+     * The largest difference at mid step between the store and a fine fixed step integration from the start of
+     * the step, over count random steps.
+     */
+    private static double midStepError(TrajectoryStore store, DoublePendulum dp, java.util.Random random, int count) {
+
+        double[] y = new double[4], exact = new double[4], out = new double[4];
+        double error = 0.0;
+        for (int i = 0; i < count; i++) {
+            int k = random.nextInt(store.size() - 1);
+            double t = 0.5 * (store.getTime(k) + store.getTime(k + 1));
+            store.readState(k, y);
+            DoublePendulum local = DoublePendulum.fromAngles(dp.getMass1(), dp.getMass2(), dp.getLength1(),
+                    dp.getLength2(), y[0], y[1], y[2], y[3]);
+            local.iterate(1000, (t - store.getTime(k)) / 1000);
+            local.readState(exact);
+            store.stateAt(t, out);
+            for (int j = 0; j < 4; j++) error = Math.max(error, Math.abs(out[j] - exact[j]));
+        }
+        return error;
+    }
+
+    public static void main(String[] args) {
+
+        double seconds;
+        int queries = 100000;
+        try {
+            seconds = Double.parseDouble(args[0]);
+            if (args.length > 1) queries = Integer.parseInt(args[1]);
+        } catch (Exception e) {
+            System.err.println("usage: java TrajectoryStore seconds [queries]");
+            System.exit(1);
+            return;
+        }
+
+        //record an adaptive run
+        DoublePendulum dp = DoublePendulum.defaultPendulum();
+        TrajectoryStore store = new TrajectoryStore();
+        dp.addStepListener(store);
+        dp.advanceTo(seconds);
+        System.out.printf("%d steps recorded over %.1fs, tolerances %g/%g%n", store.size() - 1, store.getEndTime(),
+                dp.getAbsTol(), dp.getRelTol());
+
+        //time random lookups, the second round once the lookup has been compiled
+        java.util.Random random = new java.util.Random(1);
+        double[] out = new double[4];
+        double sum = 0.0;
+        for (int round = 0; round < 2; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < queries; i++) {
+                store.stateAt(seconds * random.nextDouble(), out);
+                sum += out[0];
+            }
+            if (round == 1) {
+                System.out.printf("%.0f ns per lookup (%g)%n", (System.nanoTime() - start) / (double) queries, sum);
+            }
+        }
+
+        System.out.printf("largest interpolation error at mid step %.3g%n", midStepError(store, dp, random, 100));
+
+        //the same steps with the Hermite interpolant, for comparison
+        for (int k = 0; k < store.size() - 1; k++) Arrays.fill(store.track.dense, 4 * k, 4 * k + 4, 0.0);
+        System.out.printf("with cubic Hermite instead %.3g%n", midStepError(store, dp, random, 100));
+    }
+
+}
@@ -0,0 +1,141 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes a double pendulum trajectory in a compact binary format.
+ *
+ * The file starts with a header of HEADER_SIZE bytes, all values little endian:
+ * <pre>
+ *   int    magic (MAGIC)
+ *   int    version (VERSION)
+ *   int    flags (FLAG_ENERGIES if the records carry energies)
+ *   int    number of doubles per record
+ *   double mass1, mass2, length1, length2
+ *   double h, the timestep
+ *   long   sample interval, the number of steps between records (0 if records are not evenly spaced)
+ * </pre>
+ * followed by fixed width records of doubles: t, theta1, theta2, omega1, omega2 and, if FLAG_ENERGIES is set,
+ * the kinetic, potential and total energy. The records are collected in a direct buffer and written through a
+ * FileChannel, so nothing is formatted as text. TrajectoryReader reads the format back.
+ */
+public class TrajectoryWriter implements Closeable {
+
+    public static final int MAGIC = 0x44505452; //"DPTR"
+    public static final int VERSION = 1;
+    public static final int FLAG_ENERGIES = 1;
+    public static final int HEADER_SIZE = 64;
+
+    //doubles per record without and with energies
+    static final int STATE_DOUBLES = 5, ENERGY_DOUBLES = 8;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+    private final boolean energies;
+    private final double mass1, mass2, length1, length2;
+
+    //working arrays for the state and observables of the pendulum being recorded
+    private final double[] state = new double[4];
+    private final double[] obs = new double[DoublePendulum.OBSERVABLES];
+
+    private long records = 0;
+
+    /**
+     * Create or truncate a trajectory file for the given pendulum.
+     *
+     * @param path the file to write
+     * @param dp the pendulum, whose masses and lengths go in the header
+     * @param h the timestep used to integrate it
+     * @param sampleInterval the number of steps between records, or 0 if they are not evenly spaced
+     * @param energies whether to store the energies in every record
+     */
+    public TrajectoryWriter(Path path, DoublePendulum dp, double h, long sampleInterval, boolean energies) throws IOException {
+
+        this.energies = energies;
+        mass1 = dp.getMass1();
+        mass2 = dp.getMass2();
+        length1 = dp.getLength1();
+        length2 = dp.getLength2();
+
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(energies ? FLAG_ENERGIES : 0);
+        buffer.putInt(energies ? ENERGY_DOUBLES : STATE_DOUBLES);
+        buffer.putDouble(mass1);
+        buffer.putDouble(mass2);
+        buffer.putDouble(length1);
+        buffer.putDouble(length2);
+        buffer.putDouble(h);
+        buffer.putLong(sampleInterval);
+    }
+
+    /**
+     * Append the current time and state of the pendulum.
+     */
+    public void write(DoublePendulum dp) throws IOException {
+
+        dp.readState(state);
+        write(dp.getTime(), state);
+    }
+
+    /**
+     * Append a record for the state y at time t, where y is laid out as the state of DoublePendulum.
+     */
+    public void write(double t, double[] y) throws IOException {
+
+        if (buffer.remaining() < ENERGY_DOUBLES * 8) flush();
+
+        buffer.putDouble(t);
+        buffer.putDouble(y[0]);
+        buffer.putDouble(y[1]);
+        buffer.putDouble(y[2]);
+        buffer.putDouble(y[3]);
+
+        if (energies) {
+            DoublePendulum.observables(y, mass1, mass2, length1, length2, obs);
+            buffer.putDouble(obs[DoublePendulum.KINETIC]);
+            buffer.putDouble(obs[DoublePendulum.POTENTIAL]);
+            buffer.putDouble(obs[DoublePendulum.TOTAL]);
+        }
+
+        records++;
+    }
+
+    /**
+     * @return the number of records written so far.
+     */
+    public long getRecords() {
+        return records;
+    }
+
+    /**
+     * Write out any buffered records.
+     */
+    public void flush() throws IOException {
+
+        buffer.flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+}
@@ -83,7 +83,7 @@ public class Vector3D {
 
     /**dot product of two vectors a,b to give a double being the sum of the components multiplied
      */
-    public static Double dotVector3D(Vector3D a, Vector3D b) {
+    public static double dotVector3D(Vector3D a, Vector3D b) {
 	return (a.getX()*b.getX() +a.getY()*b.getY() + a.getZ()*b.getZ());
     }
 
@@ -102,6 +102,58 @@ public class Vector3D {
     public static Vector3D subVector3D(Vector3D a,Vector3D b){
     		return new Vector3D(a.getX()-b.getX(), a.getY()-b.getY(), a.getZ()- b.getZ());
     }
+
+    /**in-place and destination variants of the operations above, for loops that must not allocate.
+     *the destination variants write the result into out and return it, out may be one of the arguments
+     */
+    public Vector3D set(double xx, double yy, double zz){
+    	this.X = xx;
+    	this.Y = yy;
+    	this.Z = zz;
+    	return this;
+    }
+
+    public Vector3D set(Vector3D a){return set(a.X, a.Y, a.Z);}
+
+    /**this = this + b
+     */
+    public Vector3D add(Vector3D b){return set(X + b.X, Y + b.Y, Z + b.Z);}
+
+    /**this = this - b
+     */
+    public Vector3D sub(Vector3D b){return set(X - b.X, Y - b.Y, Z - b.Z);}
+
+    /**this = this * s
+     */
+    public Vector3D scale(double s){return set(X * s, Y * s, Z * s);}
+
+    /**this = this + s * b, the update of every leapfrog step
+     */
+    public Vector3D scaleAdd(double s, Vector3D b){return set(X + s * b.X, Y + s * b.Y, Z + s * b.Z);}
+
+    /**the dot product of this with b
+     */
+    public double dot(Vector3D b){return X * b.X + Y * b.Y + Z * b.Z;}
+
+    public static Vector3D addVector3D(Vector3D a, Vector3D b, Vector3D out){
+    	return out.set(a.X + b.X, a.Y + b.Y, a.Z + b.Z);
+    }
+
+    public static Vector3D subVector3D(Vector3D a, Vector3D b, Vector3D out){
+    	return out.set(a.X - b.X, a.Y - b.Y, a.Z - b.Z);
+    }
+
+    public static Vector3D multVector3D(Vector3D a, double b, Vector3D out){
+    	return out.set(a.X * b, a.Y * b, a.Z * b);
+    }
+
+    public static Vector3D divVector3D(Vector3D a, double b, Vector3D out){
+    	return out.set(a.X / b, a.Y / b, a.Z / b);
+    }
+
+    public static Vector3D crossVector3D(Vector3D a, Vector3D b, Vector3D out){
+    	return out.set(a.Y * b.Z - b.Y * a.Z, b.X * a.Z - a.X * b.Z, a.X * b.Y - b.X * a.Y);
+    }
     
     /** comparing the difference between the two vector's components to account for rounding errors to ensure that the vector identites return true up to threee decimal places
      *correct to three decimal places
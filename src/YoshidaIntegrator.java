@@ -0,0 +1,44 @@
+/**
+ * Yoshida's 4th order composition method.
+ *
+ * Each step is made of three steps of a symmetric 2nd order method with lengths w1*h, w0*h and w1*h, where
+ * w1 = 1/(2 - 2^(1/3)) and w0 = 1 - 2*w1. The first and last substeps overshoot and the middle one steps
+ * backwards so that the 3rd order errors cancel. Composed from the implicit midpoint rule the method is
+ * symplectic, so the energy error stays bounded as with ImplicitMidpointIntegrator but falls off as h^4.
+ */
+public class YoshidaIntegrator implements Integrator {
+
+    private static final double CBRT2 = Math.cbrt(2.0);
+    private static final double W1 = 1.0 / (2.0 - CBRT2);
+    private static final double W0 = 1.0 - 2.0 * W1;
+
+    /**
+     * The symmetric 2nd order method being composed.
+     */
+    private final Integrator base;
+
+    /**
+     * Compose the implicit midpoint rule.
+     */
+    public YoshidaIntegrator() {
+        this(new ImplicitMidpointIntegrator());
+    }
+
+    /**
+     * Compose the given method, which must be symmetric and of 2nd order for the result to be of 4th order.
+     *
+     * @param base the method to compose
+     */
+    public YoshidaIntegrator(Integrator base) {
+        this.base = base;
+    }
+
+    @Override
+    public void step(DoublePendulum system, double t, double[] y, double h) {
+
+        base.step(system, t, y, W1 * h);
+        base.step(system, t + W1 * h, y, W0 * h);
+        base.step(system, t + (W1 + W0) * h, y, W1 * h);
+    }
+
+}